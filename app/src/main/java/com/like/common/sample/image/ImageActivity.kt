@@ -3,6 +3,7 @@ package com.like.common.sample.image
 import android.graphics.Bitmap
 import android.graphics.BitmapFactory
 import android.os.Bundle
+import android.util.Log
 import android.view.View
 import androidx.appcompat.app.AppCompatActivity
 import androidx.databinding.DataBindingUtil
@@ -32,6 +33,9 @@ class ImageActivity : AppCompatActivity() {
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
         mBinding
+        ImageUtils.compressMetricsListener = {
+            Log.d("ImageActivity", it.toString())
+        }
         lifecycleScope.launch {
             if (!file.exists()) {
                 file.createNewFile()
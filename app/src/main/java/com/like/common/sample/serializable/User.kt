@@ -1,5 +1,7 @@
 package com.like.common.sample.serializable
 
+import com.like.common.util.BinaryCodec
 import java.io.Serializable
 
-data class User(val name: String) : Serializable
\ No newline at end of file
+@BinaryCodec
+data class User(val name: String) : Serializable
@@ -0,0 +1,217 @@
+package com.like.codec.compiler
+
+import javax.annotation.processing.AbstractProcessor
+import javax.annotation.processing.RoundEnvironment
+import javax.lang.model.SourceVersion
+import javax.lang.model.element.*
+import javax.lang.model.type.TypeKind
+import javax.lang.model.type.TypeMirror
+import javax.lang.model.util.ElementFilter
+import javax.tools.Diagnostic
+
+/**
+ * 为被 com.like.common.util.BinaryCodec 注解的类生成 com.like.common.util.SerializableCodec 的实现类。
+ *
+ * 生成的类和被注解的类在同一个包中，类名为"类名_BinaryCodec"（内部类为"外部类名_内部类名_BinaryCodec"），
+ * 运行时由 SerializableCodecs 按照这个规则查找，所以这里的命名规则不能随意修改。
+ *
+ * 编码时按照构造函数参数的顺序依次保存对应的字段，解码时按照同样的顺序读取后调用这个构造函数。
+ */
+class BinaryCodecProcessor : AbstractProcessor() {
+    companion object {
+        private const val ANNOTATION = "com.like.common.util.BinaryCodec"
+        private const val CODEC_INTERFACE = "com.like.common.util.SerializableCodec"
+        private const val CODECS = "com.like.common.util.SerializableCodecs"
+        private const val GENERATED_CODEC_SUFFIX = "_BinaryCodec"
+    }
+
+    override fun getSupportedAnnotationTypes(): Set<String> = setOf(ANNOTATION)
+
+    override fun getSupportedSourceVersion(): SourceVersion = SourceVersion.latestSupported()
+
+    override fun process(annotations: Set<TypeElement>, roundEnv: RoundEnvironment): Boolean {
+        val annotation = annotations.firstOrNull() ?: return false
+        ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(annotation)).forEach { type ->
+            try {
+                generate(type)
+            } catch (e: CodecException) {
+                processingEnv.messager.printMessage(Diagnostic.Kind.ERROR, e.message, e.element)
+            }
+        }
+        return true
+    }
+
+    private class CodecException(message: String, val element: Element) : Exception(message)
+
+    /**
+     * 需要保存的字段
+     *
+     * @property accessor   读取字段的表达式，比如 getName()
+     */
+    private class Property(val name: String, val type: TypeMirror, val accessor: String)
+
+    private fun generate(type: TypeElement) {
+        if (type.kind != ElementKind.CLASS || type.modifiers.contains(Modifier.ABSTRACT)) {
+            throw CodecException("@BinaryCodec can only be applied to a concrete class", type)
+        }
+        if (type.nestingKind.isNested && !type.modifiers.contains(Modifier.STATIC)) {
+            throw CodecException("@BinaryCodec can not be applied to an inner class", type)
+        }
+        // 类型参数在运行时被擦除，解码时无法确定字段的实际类型
+        if (type.typeParameters.isNotEmpty()) {
+            throw CodecException("@BinaryCodec can not be applied to a generic class", type)
+        }
+        val properties = findConstructorProperties(type)
+        val packageName = processingEnv.elementUtils.getPackageOf(type).qualifiedName.toString()
+        val codecSimpleName = codecSimpleName(type)
+        val typeName = type.qualifiedName.toString()
+
+        val nestedCodecs = linkedMapOf<String, String>()// 字段类型 -> 静态字段名
+        val encode = StringBuilder()
+        val decode = StringBuilder()
+        properties.forEachIndexed { index, property ->
+            val value = "value.${property.accessor}"
+            val local = "p$index"
+            val declaredType = property.type.toString()
+            val erasure = processingEnv.typeUtils.erasure(property.type).toString()
+            when (property.type.kind) {
+                TypeKind.BOOLEAN -> primitive(encode, decode, "Boolean", value, declaredType, local)
+                TypeKind.BYTE -> primitive(encode, decode, "Byte", value, declaredType, local)
+                TypeKind.SHORT -> primitive(encode, decode, "Short", value, declaredType, local)
+                TypeKind.CHAR -> primitive(encode, decode, "Char", value, declaredType, local)
+                TypeKind.INT -> primitive(encode, decode, "Int", value, declaredType, local)
+                TypeKind.LONG -> primitive(encode, decode, "Long", value, declaredType, local)
+                TypeKind.FLOAT -> primitive(encode, decode, "Float", value, declaredType, local)
+                TypeKind.DOUBLE -> primitive(encode, decode, "Double", value, declaredType, local)
+                else -> {
+                    val element = processingEnv.typeUtils.asElement(property.type) as? TypeElement
+                    when {
+                        erasure == "java.lang.String" -> {
+                            encode.append("        $CODECS.writeString(output, $value);\n")
+                            decode.append("        $declaredType $local = $CODECS.readString(input);\n")
+                        }
+                        erasure == "byte[]" -> {
+                            encode.append("        $CODECS.writeByteArray(output, $value);\n")
+                            decode.append("        $declaredType $local = $CODECS.readByteArray(input);\n")
+                        }
+                        element?.kind == ElementKind.ENUM -> {
+                            encode.append("        $CODECS.writeString(output, $value == null ? null : $value.name());\n")
+                            decode.append("        String ${local}Name = $CODECS.readString(input);\n")
+                            decode.append("        $declaredType $local = ${local}Name == null ? null : $erasure.valueOf(${local}Name);\n")
+                        }
+                        element != null && hasCodecAnnotation(element) -> {
+                            val codecField = nestedCodecs.getOrPut(erasure) { "CODEC_${nestedCodecs.size}" }
+                            encode.append("        $CODECS.writeObject(output, $value, $codecField);\n")
+                            decode.append("        $declaredType $local = $CODECS.readObject(input, $codecField);\n")
+                        }
+                        else -> {
+                            encode.append("        $CODECS.writeValue(output, $value);\n")
+                            decode.append("        $declaredType $local = ($erasure) $CODECS.readValue(input);\n")
+                        }
+                    }
+                }
+            }
+        }
+
+        val source = StringBuilder()
+        if (packageName.isNotEmpty()) {
+            source.append("package $packageName;\n\n")
+        }
+        source.append("/**\n * Generated by codec-compiler for {@link $typeName}. Do not edit.\n */\n")
+        source.append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n")
+        source.append("public final class $codecSimpleName implements $CODEC_INTERFACE<$typeName> {\n")
+        nestedCodecs.forEach { (nestedType, field) ->
+            val nestedElement = processingEnv.elementUtils.getTypeElement(nestedType)
+            val nestedPackage = processingEnv.elementUtils.getPackageOf(nestedElement).qualifiedName.toString()
+            val nestedCodec = if (nestedPackage.isEmpty()) codecSimpleName(nestedElement) else "$nestedPackage.${codecSimpleName(nestedElement)}"
+            source.append("    private static final $CODEC_INTERFACE<$nestedType> $field = new $nestedCodec();\n")
+        }
+        if (nestedCodecs.isNotEmpty()) {
+            source.append("\n")
+        }
+        source.append("    @Override\n")
+        source.append("    public void encode($typeName value, java.io.DataOutput output) throws java.io.IOException {\n")
+        source.append(encode)
+        source.append("    }\n\n")
+        source.append("    @Override\n")
+        source.append("    public $typeName decode(java.io.DataInput input) throws java.io.IOException {\n")
+        source.append(decode)
+        source.append("        return new $typeName(")
+        source.append(properties.indices.joinToString(", ") { "p$it" })
+        source.append(");\n")
+        source.append("    }\n")
+        source.append("}\n")
+
+        val qualifiedCodecName = if (packageName.isEmpty()) codecSimpleName else "$packageName.$codecSimpleName"
+        processingEnv.filer.createSourceFile(qualifiedCodecName, type).openWriter().use {
+            it.write(source.toString())
+        }
+    }
+
+    private fun primitive(encode: StringBuilder, decode: StringBuilder, method: String, value: String, type: String, local: String) {
+        encode.append("        output.write$method($value);\n")
+        decode.append("        $type $local = input.read$method();\n")
+    }
+
+    /**
+     * 找到参数最多的、参数名和字段名一一对应的构造函数，Kotlin 数据类就是主构造函数。
+     */
+    private fun findConstructorProperties(type: TypeElement): List<Property> {
+        val fields = ElementFilter.fieldsIn(type.enclosedElements)
+            .filter { !it.modifiers.contains(Modifier.STATIC) }
+            .associateBy { it.simpleName.toString() }
+        val methods = ElementFilter.methodsIn(type.enclosedElements)
+            .filter { it.parameters.isEmpty() && !it.modifiers.contains(Modifier.PRIVATE) && !it.modifiers.contains(Modifier.STATIC) }
+            .associateBy { it.simpleName.toString() }
+        val constructor = ElementFilter.constructorsIn(type.enclosedElements)
+            .filter { !it.modifiers.contains(Modifier.PRIVATE) }
+            .filter { constructor ->
+                constructor.parameters.all { parameter ->
+                    val field = fields[parameter.simpleName.toString()]
+                    field != null && processingEnv.typeUtils.isSameType(
+                        processingEnv.typeUtils.erasure(field.asType()),
+                        processingEnv.typeUtils.erasure(parameter.asType())
+                    )
+                }
+            }
+            .maxByOrNull { it.parameters.size }
+            ?: throw CodecException("@BinaryCodec class needs a non-private constructor whose parameters match its fields by name", type)
+        return constructor.parameters.map { parameter ->
+            val name = parameter.simpleName.toString()
+            val field = fields.getValue(name)
+            val accessor = findAccessor(name, field, methods)
+                ?: throw CodecException("no accessible getter for field $name", field)
+            Property(name, field.asType(), accessor)
+        }
+    }
+
+    /**
+     * Kotlin 属性 name 的 getter 为 getName()，属性 isName 的 getter 为 isName()
+     */
+    private fun findAccessor(name: String, field: VariableElement, methods: Map<String, ExecutableElement>): String? {
+        val capitalized = name.replaceFirstChar { it.uppercaseChar() }
+        val candidates = listOf("get$capitalized", "is$capitalized", name)
+        candidates.firstOrNull { candidate ->
+            methods[candidate]?.let { processingEnv.typeUtils.isSameType(it.returnType, field.asType()) } == true
+        }?.let { return "$it()" }
+        if (!field.modifiers.contains(Modifier.PRIVATE)) return name
+        return null
+    }
+
+    private fun hasCodecAnnotation(element: TypeElement): Boolean =
+        element.annotationMirrors.any { (it.annotationType.asElement() as TypeElement).qualifiedName.contentEquals(ANNOTATION) }
+
+    /**
+     * 必须和 SerializableCodecs 中查找的规则一致
+     */
+    private fun codecSimpleName(type: TypeElement): String {
+        val names = mutableListOf<String>()
+        var element: Element = type
+        while (element is TypeElement) {
+            names.add(0, element.simpleName.toString())
+            element = element.enclosingElement
+        }
+        return names.joinToString("_") + GENERATED_CODEC_SUFFIX
+    }
+
+}
@@ -0,0 +1,228 @@
+package com.like.codec.compiler
+
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.net.URLClassLoader
+import javax.tools.Diagnostic
+import javax.tools.DiagnosticCollector
+import javax.tools.JavaFileObject
+import javax.tools.ToolProvider
+
+class BinaryCodecProcessorTest {
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private class Result(val success: Boolean, val errors: List<String>, val classes: File, val generated: File)
+
+    /**
+     * common 模块中被生成的代码引用的类。这里用 Java 实现最简单的版本，只用于编译和运行生成的代码。
+     */
+    private val runtimeSources = mapOf(
+        "com/like/common/util/BinaryCodec.java" to """
+            package com.like.common.util;
+            @java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.RUNTIME)
+            public @interface BinaryCodec {}
+        """,
+        "com/like/common/util/SerializableCodec.java" to """
+            package com.like.common.util;
+            public interface SerializableCodec<T> {
+                void encode(T value, java.io.DataOutput output) throws java.io.IOException;
+                T decode(java.io.DataInput input) throws java.io.IOException;
+            }
+        """,
+        "com/like/common/util/SerializableCodecs.java" to """
+            package com.like.common.util;
+            import java.io.*;
+            public final class SerializableCodecs {
+                public static void writeString(DataOutput output, String value) throws IOException {
+                    writeByteArray(output, value == null ? null : value.getBytes("UTF-8"));
+                }
+                public static String readString(DataInput input) throws IOException {
+                    byte[] bytes = readByteArray(input);
+                    return bytes == null ? null : new String(bytes, "UTF-8");
+                }
+                public static void writeByteArray(DataOutput output, byte[] value) throws IOException {
+                    output.writeInt(value == null ? -1 : value.length);
+                    if (value != null) output.write(value);
+                }
+                public static byte[] readByteArray(DataInput input) throws IOException {
+                    int length = input.readInt();
+                    if (length < 0) return null;
+                    byte[] bytes = new byte[length];
+                    input.readFully(bytes);
+                    return bytes;
+                }
+                public static <T> void writeObject(DataOutput output, T value, SerializableCodec<T> codec) throws IOException {
+                    output.writeBoolean(value != null);
+                    if (value != null) codec.encode(value, output);
+                }
+                public static <T> T readObject(DataInput input, SerializableCodec<T> codec) throws IOException {
+                    return input.readBoolean() ? codec.decode(input) : null;
+                }
+                public static void writeValue(DataOutput output, Object value) throws IOException {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    ObjectOutputStream oos = new ObjectOutputStream(bytes);
+                    oos.writeObject(value);
+                    oos.close();
+                    writeByteArray(output, bytes.toByteArray());
+                }
+                public static Object readValue(DataInput input) throws IOException {
+                    try {
+                        return new ObjectInputStream(new ByteArrayInputStream(readByteArray(input))).readObject();
+                    } catch (ClassNotFoundException e) {
+                        throw new IOException(e);
+                    }
+                }
+            }
+        """
+    )
+
+    private fun compile(sources: Map<String, String>): Result {
+        val sourceDir = temporaryFolder.newFolder()
+        val classes = temporaryFolder.newFolder()
+        val generated = temporaryFolder.newFolder()
+        val files = (runtimeSources + sources).map { (path, source) ->
+            File(sourceDir, path).apply {
+                parentFile.mkdirs()
+                writeText(source.trimIndent())
+            }
+        }
+        val compiler = ToolProvider.getSystemJavaCompiler()
+        val diagnostics = DiagnosticCollector<JavaFileObject>()
+        val fileManager = compiler.getStandardFileManager(diagnostics, null, null)
+        val task = compiler.getTask(
+            null, fileManager, diagnostics,
+            listOf("-d", classes.absolutePath, "-s", generated.absolutePath),
+            null, fileManager.getJavaFileObjectsFromFiles(files)
+        )
+        task.setProcessors(listOf(BinaryCodecProcessor()))
+        val success = task.call()
+        fileManager.close()
+        val errors = diagnostics.diagnostics.filter { it.kind == Diagnostic.Kind.ERROR }.map { it.getMessage(null) }
+        return Result(success, errors, classes, generated)
+    }
+
+    @Test
+    fun generatedCodecRoundTrips() {
+        val result = compile(
+            mapOf(
+                "test/Level.java" to """
+                    package test;
+                    public enum Level { LOW, HIGH }
+                """,
+                "test/User.java" to """
+                    package test;
+                    @com.like.common.util.BinaryCodec
+                    public final class User {
+                        private final String name;
+                        private final int age;
+                        private final boolean active;
+                        private final Level level;
+                        private final java.util.List<String> tags;
+                        private final Address address;
+                        public User(String name, int age, boolean active, Level level, java.util.List<String> tags, Address address) {
+                            this.name = name;
+                            this.age = age;
+                            this.active = active;
+                            this.level = level;
+                            this.tags = tags;
+                            this.address = address;
+                        }
+                        public String getName() { return name; }
+                        public int getAge() { return age; }
+                        public boolean isActive() { return active; }
+                        public Level getLevel() { return level; }
+                        public java.util.List<String> getTags() { return tags; }
+                        public Address getAddress() { return address; }
+                        @Override
+                        public String toString() { return name + "," + age + "," + active + "," + level + "," + tags + "," + address; }
+
+                        @com.like.common.util.BinaryCodec
+                        public static final class Address {
+                            private final String city;
+                            public Address(String city) { this.city = city; }
+                            public String getCity() { return city; }
+                            @Override
+                            public String toString() { return city; }
+                        }
+                    }
+                """
+            )
+        )
+        assertTrue(result.errors.toString(), result.success)
+        assertTrue(File(result.generated, "test/User_BinaryCodec.java").isFile)
+        assertTrue(File(result.generated, "test/User_Address_BinaryCodec.java").isFile)
+
+        URLClassLoader(arrayOf(result.classes.toURI().toURL()), javaClass.classLoader).use { loader ->
+            val userClass = loader.loadClass("test.User")
+            val addressClass = loader.loadClass("test.User\$Address")
+            val levelClass = loader.loadClass("test.Level")
+            val codec = loader.loadClass("test.User_BinaryCodec").getDeclaredConstructor().newInstance()
+            val encode = codec.javaClass.getMethod("encode", userClass, java.io.DataOutput::class.java)
+            val decode = codec.javaClass.getMethod("decode", java.io.DataInput::class.java)
+            val constructor = userClass.constructors.single()
+
+            listOf(
+                constructor.newInstance(
+                    "张三", 18, true, levelClass.enumConstants[1], listOf("a", "b"),
+                    addressClass.constructors.single().newInstance("成都")
+                ),
+                constructor.newInstance(null, 0, false, null, null, null)
+            ).forEach { user ->
+                val bytes = ByteArrayOutputStream()
+                DataOutputStream(bytes).use { encode.invoke(codec, user, it) }
+                val decoded = decode.invoke(codec, DataInputStream(bytes.toByteArray().inputStream()))
+                assertEquals(user.toString(), decoded.toString())
+            }
+        }
+    }
+
+    @Test
+    fun genericClassIsRejected() {
+        val result = compile(
+            mapOf(
+                "test/Box.java" to """
+                    package test;
+                    @com.like.common.util.BinaryCodec
+                    public final class Box<T> {
+                        private final T value;
+                        public Box(T value) { this.value = value; }
+                        public T getValue() { return value; }
+                    }
+                """
+            )
+        )
+        assertFalse(result.success)
+        assertEquals(listOf("@BinaryCodec can not be applied to a generic class"), result.errors)
+        assertFalse(File(result.generated, "test/Box_BinaryCodec.java").exists())
+    }
+
+    @Test
+    fun classWithoutMatchingConstructorIsRejected() {
+        val result = compile(
+            mapOf(
+                "test/Counter.java" to """
+                    package test;
+                    @com.like.common.util.BinaryCodec
+                    public final class Counter {
+                        private final int count;
+                        public Counter(int value) { this.count = value; }
+                        public int getCount() { return count; }
+                    }
+                """
+            )
+        )
+        assertFalse(result.success)
+        assertEquals(
+            listOf("@BinaryCodec class needs a non-private constructor whose parameters match its fields by name"),
+            result.errors
+        )
+    }
+
+}
@@ -0,0 +1,22 @@
+# SerializableUtils 的编解码器
+# 生成的编解码器通过类名反射创建，类名由被注解的类的类名得到，并且类名会保存在数据中，所以都不能混淆。
+-keepnames @com.like.common.util.BinaryCodec class *
+-keep class **_BinaryCodec { <init>(); }
+
+# 枚举字段按照常量名保存，SerializableCodecs.writeValue 还会保存枚举的类名，混淆后每次打包的名称都可能不同，旧数据将无法读取。
+-keepnames enum *
+-keepclassmembernames enum * {
+    public static final <fields>;
+}
+
+# 其它字段类型按照 Serializable 保存（ObjectOutputStream），数据中保存了类名和字段名。
+-keepnames class * implements java.io.Serializable
+-keepclassmembers class * implements java.io.Serializable {
+    static final long serialVersionUID;
+    private static final java.io.ObjectStreamField[] serialPersistentFields;
+    !static !transient <fields>;
+    private void writeObject(java.io.ObjectOutputStream);
+    private void readObject(java.io.ObjectInputStream);
+    java.lang.Object writeReplace();
+    java.lang.Object readResolve();
+}
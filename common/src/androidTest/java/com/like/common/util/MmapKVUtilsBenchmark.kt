@@ -0,0 +1,68 @@
+package com.like.common.util
+
+import android.content.Context
+import android.util.Log
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * 在设备上比较[MmapKVUtils]和 SharedPreferences 的读写耗时，结果输出到 logcat（tag 为 MmapKVUtilsBenchmark）。
+ * 需要真实的 SharedPreferences 实现，所以不能作为本地单元测试运行。
+ */
+@RunWith(AndroidJUnit4::class)
+class MmapKVUtilsBenchmark {
+    private val context: Context = ApplicationProvider.getApplicationContext()
+
+    /**
+     * @return 最快一轮中每次操作的耗时（纳秒）
+     */
+    private inline fun measure(name: String, operations: Int, rounds: Int = 5, block: (Int) -> Unit): Double {
+        var best = Long.MAX_VALUE
+        repeat(rounds + 1) { round ->
+            val start = System.nanoTime()
+            for (i in 0 until operations) {
+                block(i)
+            }
+            val nanos = System.nanoTime() - start
+            if (round > 0) best = minOf(best, nanos)// 第一轮为预热
+        }
+        val nanosPerOp = best.toDouble() / operations
+        Log.i("MmapKVUtilsBenchmark", String.format("%-48s %12.1f ns/op", name, nanosPerOp))
+        return nanosPerOp
+    }
+
+    @Test
+    fun writeAndReadVersusSharedPreferences() {
+        for (keyCount in listOf(10, 100, 1000)) {
+            val kv = MmapKVUtils.getInstance().apply {
+                init(context, "benchmark")
+                clear()
+            }
+            val prefs = context.getSharedPreferences("benchmark", Context.MODE_PRIVATE)
+            prefs.edit().clear().commit()
+            for (i in 0 until keyCount) {
+                kv.put("key$i", "value$i")
+                prefs.edit().putString("key$i", "value$i").commit()
+            }
+
+            val operations = 1000
+            measure("MmapKVUtils.put, $keyCount keys", operations) { kv.put("key${it % keyCount}", it) }
+            measure("SharedPreferences apply, $keyCount keys", operations) {
+                prefs.edit().putInt("key${it % keyCount}", it).apply()
+            }
+            measure("SharedPreferences commit, $keyCount keys", operations / 10) {
+                prefs.edit().putInt("key${it % keyCount}", it).commit()
+            }
+            measure("MmapKVUtils.get, $keyCount keys", operations) { kv.get("key${it % keyCount}", 0) }
+            measure("SharedPreferences.getInt, $keyCount keys", operations) { prefs.getInt("key${it % keyCount}", 0) }
+
+            assertEquals(keyCount, kv.getAll()!!.size)
+        }
+        MmapKVUtils.getInstance().clear()
+        context.getSharedPreferences("benchmark", Context.MODE_PRIVATE).edit().clear().commit()
+    }
+
+}
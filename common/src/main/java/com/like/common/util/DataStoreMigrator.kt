@@ -0,0 +1,273 @@
+package com.like.common.util
+
+import androidx.datastore.core.DataMigration
+import androidx.datastore.preferences.core.MutablePreferences
+import androidx.datastore.preferences.core.Preferences
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.yield
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 迁移到[DataStorePreferencesUtil]的数据来源。方法都在后台线程中调用。
+ */
+interface MigrationSource {
+    /**
+     * 是否可以读取数据，比如[SPUtils]、[SerializableUtils]是否已经初始化
+     */
+    fun isReady(): Boolean
+
+    fun keys(): Collection<String>
+
+    fun contains(key: String): Boolean
+
+    /**
+     * @return 不存在时返回 null
+     */
+    fun get(key: String): Any?
+
+    /**
+     * 移除已经迁移的数据
+     */
+    fun remove(keys: Collection<String>)
+}
+
+/**
+ * 从[SPUtils]迁移。Double、ByteArray、枚举按照 SPUtils 中保存的类型迁移，即 Double 迁移后为 Long（[Double.toRawBits]），
+ * ByteArray（Base64）、枚举（name）迁移后为 String。
+ * 读取的是 SPUtils 的快照，所以包括还没写入磁盘的延迟写入。
+ */
+class SPUtilsMigrationSource(private val spUtils: SPUtils = SPUtils.getInstance()) : MigrationSource {
+    override fun isReady(): Boolean = spUtils.isInitialized()
+
+    override fun keys(): Collection<String> = spUtils.getAll()?.keys ?: emptySet()
+
+    override fun contains(key: String): Boolean = spUtils.contains(key)
+
+    // default 为 null 时不解码，返回快照中保存的类型
+    override fun get(key: String): Any? = spUtils.get<Any?>(key, null)
+
+    override fun remove(keys: Collection<String>) {
+        spUtils.edit {
+            keys.forEach { remove(it) }
+        }
+    }
+}
+
+/**
+ * 从[SerializableUtils]迁移。只迁移 DataStore 支持的类型的数据，其它对象仍然保存在 SerializableUtils 中。
+ */
+class SerializableUtilsMigrationSource(
+    private val serializableUtils: SerializableUtils = SerializableUtils.getInstance()
+) : MigrationSource {
+    override fun isReady(): Boolean = serializableUtils.isInitialized()
+
+    override fun keys(): Collection<String> = serializableUtils.getKeys() ?: emptyList()
+
+    override fun contains(key: String): Boolean = serializableUtils.contains(key)
+
+    override fun get(key: String): Any? = serializableUtils.get<Any?>(key, null)
+
+    override fun remove(keys: Collection<String>) {
+        keys.forEach { serializableUtils.remove(it) }
+    }
+}
+
+/**
+ * 把[MigrationSource]中的数据迁移到[DataStorePreferencesUtil]，通过[DataStorePreferencesUtil.init]注册。
+ *
+ * 数据很多时一次全部迁移会阻塞第一次读取，所以分批迁移，不会阻塞启动：
+ * 1、第一次读取 DataStore 时，通过[dataMigration]迁移第一批数据；
+ * 2、之后在后台线程中每次在一个事务中迁移一批数据，直到全部迁移完成；
+ * 3、迁移完成之前，get、peek、observe 读取的 key 不存在时，立即迁移这一个 key。
+ *
+ * 每个 key 先写入 DataStore 再从数据来源中移除，所以进程被杀死后下次启动会从剩下的数据继续迁移。
+ * DataStore 中已经存在的 key 不会被覆盖，只从数据来源中移除。不支持的类型的数据会被跳过，仍然保存在数据来源中。
+ * 数据来源的所有 key 只在开始时读取一次，之后在剩下的 key 迁移完时再读取一次，迁移开始之后才写入数据来源的 key 在这时迁移。
+ *
+ * 注意：数据来源必须在[DataStorePreferencesUtil.init]之前初始化（比如先调用[SPUtils.init]），否则会抛出[IllegalStateException]。
+ *
+ * @param batchSize 每个事务迁移的 key 的数量
+ */
+class DataStoreMigrator(private val source: MigrationSource, private val batchSize: Int = 200) {
+    /**
+     * @property migrated   已经迁移的 key 的数量
+     * @property skipped    因为类型不支持而跳过的 key 的数量
+     * @property remaining  剩下的 key 的数量，还没有开始时为 -1
+     * @property finished   是否已经全部迁移完成
+     */
+    data class Progress(val migrated: Int = 0, val skipped: Int = 0, val remaining: Int = -1, val finished: Boolean = false)
+
+    private val _progress = MutableStateFlow(Progress())
+    val progress: StateFlow<Progress> = _progress
+
+    private val mutex = Mutex()
+    private val skipped: MutableSet<String> = Collections.newSetFromMap(ConcurrentHashMap())
+
+    /**
+     * 还没有迁移的 key，第一次使用时从数据来源读取。[dataMigration]不在[mutex]中执行，所以通过 synchronized 访问。
+     */
+    private var remainingKeys: LinkedHashSet<String>? = null
+    private val scope = CoroutineScope(SupervisorJob() + STORAGE_DISPATCHER)
+    private lateinit var util: DataStorePreferencesUtil
+    private lateinit var fileName: String
+
+    init {
+        require(batchSize > 0) { "batchSize must be greater than 0" }
+    }
+
+    /**
+     * 创建 DataStore 时传入。第一次读取 DataStore 时执行，这时其它读写都在等待，所以不需要加锁。
+     */
+    internal val dataMigration = object : DataMigration<Preferences> {
+        private var migrated: List<String> = emptyList()
+
+        override suspend fun shouldMigrate(currentData: Preferences): Boolean =
+            !_progress.value.finished && source.isReady() && nextBatch().isNotEmpty()
+
+        override suspend fun migrate(currentData: Preferences): Preferences {
+            val preferences = currentData.toMutablePreferences()
+            migrated = copy(preferences, nextBatch())
+            return preferences
+        }
+
+        override suspend fun cleanUp() {
+            source.remove(migrated)
+            onMigrated(migrated)
+            migrated = emptyList()
+        }
+    }
+
+    /**
+     * 数据来源还没有初始化时抛出[IllegalStateException]
+     */
+    internal fun checkReady() {
+        check(source.isReady()) { "${source.javaClass.simpleName} must be initialized before DataStorePreferencesUtil.init()" }
+    }
+
+    /**
+     * 在后台线程中分批迁移剩下的数据。必须在创建 DataStore 之前调用，[dataMigration]需要用到[util]。
+     */
+    internal fun start(util: DataStorePreferencesUtil, fileName: String) {
+        if (this::util.isInitialized) return
+        this.util = util
+        this.fileName = fileName
+        scope.launch {
+            try {
+                // 等待 DataStore 完成第一次读取（包括[dataMigration]），避免和它同时迁移
+                util.awaitSnapshot(fileName)
+                while (migrateBatch()) {
+                    yield()
+                }
+            } catch (e: Exception) {
+                e.printStackTrace()
+            }
+        }
+    }
+
+    /**
+     * @return 是否还有剩下的数据
+     */
+    private suspend fun migrateBatch(): Boolean = mutex.withLock {
+        val keys = nextBatch()
+        if (keys.isEmpty()) {
+            _progress.value = _progress.value.copy(skipped = skipped.size, remaining = 0, finished = true)
+            return false
+        }
+        var migrated: List<String> = emptyList()
+        util.update(fileName) { migrated = copy(it, keys) }
+        source.remove(migrated)
+        onMigrated(migrated)
+        true
+    }
+
+    /**
+     * 迁移单个 key
+     *
+     * @return 是否迁移了数据
+     */
+    internal suspend fun migrate(key: String): Boolean {
+        if (_progress.value.finished || !::util.isInitialized || key in skipped) return false
+        return withContext(STORAGE_DISPATCHER) {
+            mutex.withLock {
+                if (!source.contains(key)) return@withLock false
+                var migrated: List<String> = emptyList()
+                util.update(fileName) { migrated = copy(it, listOf(key)) }
+                source.remove(migrated)
+                onMigrated(migrated)
+                migrated.isNotEmpty()
+            }
+        }
+    }
+
+    /**
+     * 剩下的 key 为空时重新读取一次数据来源，只有这时才需要遍历数据来源的所有 key。
+     */
+    private fun nextBatch(): List<String> = synchronized(this) {
+        val keys = remainingKeys?.takeIf { it.isNotEmpty() }
+            ?: LinkedHashSet(source.keys()).apply { removeAll(skipped) }.also { remainingKeys = it }
+        keys.asSequence().take(batchSize).toList()
+    }
+
+    /**
+     * 把[keys]的数据写入[preferences]
+     *
+     * @return 需要从数据来源中移除的 key
+     */
+    private fun copy(preferences: MutablePreferences, keys: List<String>): List<String> {
+        val migrated = ArrayList<String>(keys.size)
+        keys.forEach { key ->
+            val value = try {
+                source.get(key)
+            } catch (e: Exception) {
+                e.printStackTrace()
+                null
+            }
+            if (value == null || !isSupported(value)) {
+                synchronized(this) { remainingKeys?.remove(key) }
+                // 读取 key 列表之后已经从数据来源中移除的 key 不算跳过
+                if (value != null || source.contains(key)) {
+                    skipped.add(key)
+                }
+                return@forEach
+            }
+            val type = if (value is Set<*>) Set::class else value::class
+            val preferencesKey = util.preferencesKey<Any>(key, type)
+            // Preferences.Key 只按照名字比较，所以不管类型是否一致，已经存在的 key 都不覆盖
+            if (!preferences.contains(preferencesKey)) {
+                preferences[preferencesKey] = value
+            }
+            migrated.add(key)
+        }
+        return migrated
+    }
+
+    private fun isSupported(value: Any): Boolean =
+        value is Int || value is Long || value is Float || value is Double || value is Boolean || value is String ||
+                (value is Set<*> && value.all { it is String })
+
+    private fun onMigrated(migrated: List<String>) {
+        val remaining = synchronized(this) {
+            remainingKeys?.let {
+                it.removeAll(migrated)
+                it.size
+            } ?: -1
+        }
+        val progress = _progress.value
+        _progress.value = progress.copy(
+            migrated = progress.migrated + migrated.size,
+            skipped = skipped.size,
+            remaining = remaining,
+            // 剩下的 key 为 0 时还要在[migrateBatch]中重新读取一次数据来源才能确定是否完成
+            finished = progress.finished
+        )
+    }
+
+}
@@ -3,9 +3,16 @@ package com.like.common.util
 import android.content.Context
 import androidx.datastore.core.DataStore
 import androidx.datastore.preferences.core.*
-import androidx.datastore.preferences.preferencesDataStore
-import kotlinx.coroutines.flow.first
-import kotlinx.coroutines.flow.map
+import androidx.datastore.preferences.preferencesDataStoreFile
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.flow.*
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.reflect.KClass
 
 /**
  * Preferences DataStore 相比于 SharedPreferences 优点：
@@ -14,10 +21,24 @@ import kotlinx.coroutines.flow.map
  * 3、没有 apply() 和 commit() 等等数据持久的方法
  * 4、自动完成 SharedPreferences 迁移到 DataStore，保证数据一致性，不会造成数据损坏
  * 5、可以监听到操作成功或者失败结果
+ *
+ * 支持多个文件，所有方法的 fileName 参数默认为[init]中传入的文件名。同一个文件在进程中只会创建一个 DataStore（DataStore 的要求）。
+ * 每个文件在内存中保存一份数据快照：第一次读取时从 DataStore 读取（预热），之后的读取都直接读取快照，
+ * 写入时在事务完成后用事务的结果更新快照，所以写入之后立即读取也能读取到新的值。
+ * 预热完成后可以在任意线程中使用同步的[peek]读取；需要监听某个 key 时使用[observe]。
+ * 每次 put 都是一次完整的事务，需要同时写入多个 key 时使用[putMany]。
+ *
+ * 从[SPUtils]、[SerializableUtils]迁移数据时，在[init]中传入[DataStoreMigrator]，见[DataStoreMigrator]。
  */
 class DataStorePreferencesUtil private constructor() {
     companion object {
         const val KEY_IS_EMPTY_EXCEPTION = "key is empty"
+        const val NOT_INIT_EXCEPTION = "you must init DataStorePreferencesUtil by init() first"
+
+        /**
+         * 以前的版本忽略[init]的 fileName 参数，固定使用这个文件名。见[dataStore]
+         */
+        private const val LEGACY_FILE_NAME = "data_store_preferences"
 
         fun getInstance(): DataStorePreferencesUtil {
             return Holder.instance
@@ -29,58 +50,285 @@ class DataStorePreferencesUtil private constructor() {
     }
 
     lateinit var context: Context
+        private set
+
+    /**
+     * 默认的文件名，由[init]设置
+     */
+    lateinit var fileName: String
+        private set
+
+    private val dataStores = HashMap<String, DataStore<Preferences>>()
+    private val snapshots = HashMap<String, Snapshot>()
+    private val scope = CoroutineScope(SupervisorJob() + STORAGE_DISPATCHER)
+    private var migrators: List<DataStoreMigrator> = emptyList()
+
+    /**
+     * 一个文件的数据快照。预热和写入都在[mutex]中进行，保证快照按照事务的顺序更新。
+     */
+    private class Snapshot {
+        val state = MutableStateFlow<Preferences?>(null)
+        val mutex = Mutex()
+        val warmingUp = AtomicBoolean()
+    }
+
+    /**
+     * Preferences.Key 的注册表，避免每次 get、put 都创建新的 Key 对象。
+     * Preferences.Key 只按照名字比较，所以按照类型分开保存，避免不同类型的同名 key 互相覆盖。
+     */
+    private val keys = ConcurrentHashMap<KClass<*>, ConcurrentHashMap<String, Preferences.Key<*>>>()
+
+    /**
+     * 只有第一次调用有效，之后的调用会被忽略。
+     *
+     * @param fileName  默认的文件名。默认为包名。
+     * 以前的版本忽略这个参数，固定使用"data_store_preferences"，第一次使用默认文件时，如果默认文件还不存在，旧文件会被重命名为默认文件，所以数据不会丢失。
+     * @param migrators 迁移到默认文件中的数据，在后台线程中分批迁移。数据来源必须已经初始化
+     */
+    @Synchronized
+    fun init(context: Context, fileName: String = context.packageName, migrators: List<DataStoreMigrator> = emptyList()) {
+        if (this::context.isInitialized) return
+        migrators.forEach { it.checkReady() }
+        this.context = context.applicationContext
+        this.fileName = fileName
+        this.migrators = migrators
+        migrators.forEach { it.start(this, fileName) }
+        warmUp(fileName)
+    }
+
+    /**
+     * 获取[fileName]对应的 DataStore，第一次获取时创建。
+     * 不直接暴露给外部，所有修改都必须通过本类进行，否则快照不会更新。
+     *
+     * 以前的版本把所有数据保存在[LEGACY_FILE_NAME]中，创建默认文件的 DataStore 时，如果默认文件还不存在，把旧文件重命名为默认文件。
+     */
+    private fun dataStore(fileName: String): DataStore<Preferences> {
+        require(::context.isInitialized) { NOT_INIT_EXCEPTION }
+        synchronized(dataStores) {
+            return dataStores.getOrPut(fileName) {
+                if (fileName == this.fileName && fileName != LEGACY_FILE_NAME && LEGACY_FILE_NAME !in dataStores) {
+                    moveLegacyFile(fileName)
+                }
+                PreferenceDataStoreFactory.create(
+                    migrations = if (fileName == this.fileName) migrators.map { it.dataMigration } else listOf()
+                ) {
+                    context.preferencesDataStoreFile(fileName)
+                }
+            }
+        }
+    }
+
+    private fun moveLegacyFile(fileName: String) {
+        try {
+            val legacyFile = context.preferencesDataStoreFile(LEGACY_FILE_NAME)
+            val file = context.preferencesDataStoreFile(fileName)
+            if (legacyFile.exists() && !file.exists()) {
+                legacyFile.renameTo(file)
+            }
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+    }
+
+    private fun snapshotOf(fileName: String): Snapshot {
+        synchronized(snapshots) {
+            return snapshots.getOrPut(fileName) { Snapshot() }
+        }
+    }
+
+    /**
+     * [fileName]的数据快照，预热完成之前为 null。
+     */
+    fun snapshot(fileName: String = this.fileName): StateFlow<Preferences?> = snapshotOf(fileName).state
+
+    /**
+     * 在后台线程中预热[fileName]的数据快照，已经预热或者正在预热时不做任何事。
+     * [init]时会自动预热默认的文件。
+     */
+    fun warmUp(fileName: String = this.fileName) {
+        val snapshot = snapshotOf(fileName)
+        if (snapshot.state.value != null || !snapshot.warmingUp.compareAndSet(false, true)) return
+        scope.launch {
+            try {
+                awaitSnapshot(fileName)
+            } catch (e: Exception) {
+                e.printStackTrace()
+            } finally {
+                snapshot.warmingUp.set(false)
+            }
+        }
+    }
+
+    /**
+     * 获取[fileName]的数据快照，还没有预热时先读取数据。
+     */
+    @PublishedApi
+    internal suspend fun awaitSnapshot(fileName: String): Preferences {
+        val snapshot = snapshotOf(fileName)
+        snapshot.state.value?.let { return it }
+        return snapshot.mutex.withLock {
+            snapshot.state.value ?: dataStore(fileName).data.first().also { snapshot.state.value = it }
+        }
+    }
+
+    /**
+     * 在一个事务中修改[fileName]的数据，并用事务的结果更新快照。
+     */
+    @PublishedApi
+    internal suspend fun update(fileName: String, transform: suspend (MutablePreferences) -> Unit) {
+        val snapshot = snapshotOf(fileName)
+        snapshot.mutex.withLock {
+            snapshot.state.value = dataStore(fileName).edit(transform)
+        }
+    }
 
-    // At the top level of your kotlin file:
-    val Context.dataStore: DataStore<Preferences> by preferencesDataStore(name = "data_store_preferences")
+    /**
+     * 还有数据没有迁移完成时，在[key]不存在时立即迁移这个 key。
+     *
+     * @return 是否迁移了数据
+     */
+    @PublishedApi
+    internal suspend fun migrate(key: String, fileName: String): Boolean =
+        fileName == this.fileName && migrators.any { it.migrate(key) }
+
+    suspend inline fun <reified T> get(key: String, default: T, fileName: String = this.fileName): T {
+        require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
+        val preferencesKey = preferencesKey<T>(key)
+        awaitSnapshot(fileName)[preferencesKey]?.let { return it }
+        // 即使这里没有迁移，也可能已经被后台的分批迁移迁移了，所以都需要重新读取
+        migrate(key, fileName)
+        return awaitSnapshot(fileName)[preferencesKey] ?: default
+    }
 
-    fun init(context: Context, fileName: String = context.packageName) {
-        this.context = context
+    /**
+     * 同步读取快照中的数据，可以在主线程中调用。
+     * 快照还没有预热时返回[default]，并开始预热；[key]还没有迁移时返回[default]，并在后台线程中迁移。
+     */
+    inline fun <reified T> peek(key: String, default: T, fileName: String = this.fileName): T {
+        require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
+        val preferences = snapshot(fileName).value
+        if (preferences == null) {
+            warmUp(fileName)
+            return default
+        }
+        preferences[preferencesKey<T>(key)]?.let { return it }
+        migrateInBackground(key, fileName)
+        return default
+    }
+
+    @PublishedApi
+    internal fun migrateInBackground(key: String, fileName: String) {
+        if (migrators.all { it.progress.value.finished }) return
+        scope.launch {
+            try {
+                migrate(key, fileName)
+            } catch (e: Exception) {
+                e.printStackTrace()
+            }
+        }
     }
 
-    suspend inline fun <reified T> get(key: String, default: T): T {
+    /**
+     * 监听某个 key 的数据。收集时立即发射当前的值，之后只有这个 key 的值改变时才发射。
+     */
+    inline fun <reified T> observe(key: String, default: T, fileName: String = this.fileName): Flow<T> {
         require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
-        return context.dataStore.data.map { preferences ->
-            preferences[preferencesKey(key)] ?: default
-        }.first()
+        val preferencesKey = preferencesKey<T>(key)
+        return snapshot(fileName)
+            .onStart {
+                awaitSnapshot(fileName)
+                migrate(key, fileName)
+            }
+            .filterNotNull()
+            .map { it[preferencesKey] ?: default }
+            .distinctUntilChanged()
     }
 
-    suspend inline fun <reified T> put(key: String, value: T) {
+    suspend inline fun <reified T> put(key: String, value: T, fileName: String = this.fileName) {
         require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
-        context.dataStore.edit { mutablePreferences ->
+        update(fileName) { mutablePreferences ->
             mutablePreferences[preferencesKey(key)] = value
         }
     }
 
-    suspend inline fun <reified T> contains(key: String): Boolean {
+    suspend inline fun <reified T> contains(key: String, fileName: String = this.fileName): Boolean {
         require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
-        return context.dataStore.data.map { preferences ->
-            preferences.contains(preferencesKey<T>(key))
-        }.first()
+        return awaitSnapshot(fileName).contains(preferencesKey<T>(key))
     }
 
-    suspend inline fun <reified T> remove(key: String): T? {
+    suspend inline fun <reified T> remove(key: String, fileName: String = this.fileName): T? {
         require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
         var result: T? = null
-        context.dataStore.edit { mutablePreferences ->
+        update(fileName) { mutablePreferences ->
             result = mutablePreferences.remove(preferencesKey(key))
         }
         return result
     }
 
-    suspend fun clear() {
-        context.dataStore.edit { mutablePreferences ->
+    suspend fun clear(fileName: String = this.fileName) {
+        update(fileName) { mutablePreferences ->
             mutablePreferences.clear()
         }
     }
 
-    suspend fun getAll(): Map<String, Any> {
-        return context.dataStore.data.map { preferences ->
-            preferences.asMap().mapKeys { it.key.name }
-        }.first()
+    suspend fun getAll(fileName: String = this.fileName): Map<String, Any> {
+        return awaitSnapshot(fileName).asMap().mapKeys { it.key.name }
+    }
+
+    /**
+     * 一次读取多个 key。
+     *
+     * @param defaults  key 和它的默认值，根据默认值的类型确定 key 的类型，所以默认值不能为 null
+     * @return key 和它的值，不存在或者存储的类型和默认值的类型不一致时为默认值
+     */
+    suspend fun getMany(defaults: Map<String, Any>, fileName: String = this.fileName): Map<String, Any> {
+        val preferences = awaitSnapshot(fileName)
+        return defaults.mapValues { (key, default) ->
+            require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
+            val type = if (default is Set<*>) Set::class else default::class
+            // Preferences.get 不检查类型，同名 key 以其它类型存储时会返回其它类型的值
+            val value: Any? = preferences[preferencesKey<Any>(key, type)]
+            if (type.javaObjectType.isInstance(value)) value!! else default
+        }
     }
 
-    inline fun <reified T> preferencesKey(key: String): Preferences.Key<T> {
-        return when (T::class) {
+    /**
+     * 在一个事务中写入多个 key，只写入一次文件。
+     *
+     * @param values    key 和它的值，根据值的类型确定 key 的类型；值为 null 时移除这个 key
+     */
+    suspend fun putMany(values: Map<String, Any?>, fileName: String = this.fileName) {
+        values.keys.forEach { require(it.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION } }
+        update(fileName) { mutablePreferences ->
+            values.forEach { (key, value) ->
+                if (value == null) {
+                    // Preferences.Key 只按照名字比较，所以任意类型的 key 都可以移除
+                    mutablePreferences.remove(preferencesKey<Any>(key, String::class))
+                } else {
+                    val type = if (value is Set<*>) Set::class else value::class
+                    mutablePreferences[preferencesKey<Any>(key, type)] = value
+                }
+            }
+        }
+    }
+
+    inline fun <reified T> preferencesKey(key: String): Preferences.Key<T> = preferencesKey(key, T::class)
+
+    /**
+     * 从注册表中获取 key，不存在时创建。
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun <T> preferencesKey(key: String, type: KClass<*>): Preferences.Key<T> {
+        val keysOfType = keys[type] ?: ConcurrentHashMap<String, Preferences.Key<*>>().let {
+            keys.putIfAbsent(type, it) ?: it
+        }
+        return (keysOfType[key] ?: createPreferencesKey(key, type).let {
+            keysOfType.putIfAbsent(key, it) ?: it
+        }) as Preferences.Key<T>
+    }
+
+    private fun createPreferencesKey(key: String, type: KClass<*>): Preferences.Key<*> {
+        return when (type) {
             Int::class -> {
                 intPreferencesKey(key)
             }
@@ -100,12 +348,12 @@ class DataStorePreferencesUtil private constructor() {
                 doublePreferencesKey(key)
             }
             Set::class -> {
-                throw IllegalArgumentException("Use `preferencesSetKey` to create keys for Sets.")
+                stringSetPreferencesKey(key)
             }
             else -> {
-                throw IllegalArgumentException("Type not supported: ${T::class.java}")
+                throw IllegalArgumentException("Type not supported: ${type.java}")
             }
-        } as Preferences.Key<T>
+        }
     }
 
 }
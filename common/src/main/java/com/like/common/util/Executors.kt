@@ -2,6 +2,8 @@ package com.like.common.util
 
 import android.os.Handler
 import android.os.Looper
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.asCoroutineDispatcher
 import java.util.concurrent.Executor
 import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
@@ -10,6 +12,13 @@ val IO_EXECUTOR: ExecutorService = Executors.newSingleThreadExecutor()
 val NETWORK_EXECUTOR: ExecutorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors().coerceAtLeast(2))!!// 至少为 2 最大与 CPU 数相同
 val MAIN_EXECUTOR = MainThreadExecutor()
 
+/**
+ * 本地存储（SPUtils、SerializableUtils 等）的 suspend 方法使用的线程池。
+ * 线程数固定为 2，避免大量读写占满 Dispatchers.IO，影响网络请求等其它任务。
+ */
+val STORAGE_EXECUTOR: ExecutorService = Executors.newFixedThreadPool(2)
+val STORAGE_DISPATCHER: CoroutineDispatcher = STORAGE_EXECUTOR.asCoroutineDispatcher()
+
 fun ioThread(f: () -> Unit) {
     IO_EXECUTOR.execute(f)
 }
@@ -19,7 +28,17 @@ fun networkThread(f: () -> Unit) {
 }
 
 fun mainThread(f: () -> Unit) {
-    if (Looper.getMainLooper() === Looper.myLooper()) f() else MAIN_EXECUTOR.execute(f)
+    if (isMainThread()) f() else MAIN_EXECUTOR.execute(f)
+}
+
+fun isMainThread(): Boolean = Looper.getMainLooper() === Looper.myLooper()
+
+/**
+ * 严格模式下，在主线程中调用会读写磁盘的阻塞方法时抛出异常，用于找出主线程中的磁盘读写。
+ */
+@Throws(IllegalStateException::class)
+internal fun checkNotMainThread(strictMode: Boolean, methodName: String) {
+    check(!strictMode || !isMainThread()) { "$methodName() reads or writes disk, do not call it on the main thread, use the suspend version instead" }
 }
 
 class MainThreadExecutor : Executor {
@@ -8,9 +8,12 @@ import android.graphics.drawable.BitmapDrawable
 import android.graphics.drawable.Drawable
 import android.media.ExifInterface
 import android.media.MediaMetadataRetriever
+import android.net.Uri
 import android.os.Build
+import android.system.ErrnoException
+import android.system.Os
+import android.system.OsConstants
 import android.util.Base64
-import android.util.Log
 import android.widget.ImageView
 import androidx.core.graphics.drawable.toBitmap
 import androidx.palette.graphics.Palette
@@ -19,12 +22,43 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 import java.io.ByteArrayOutputStream
 import java.io.File
+import java.io.FileDescriptor
 import java.io.FileOutputStream
 import java.io.IOException
+import kotlin.math.ln
 
 @TargetApi(Build.VERSION_CODES.KITKAT)
 object ImageUtils {
-    private val TAG = ImageUtils::class.java.simpleName
+    /**
+     * 质量压缩时查找 quality 的最大编码次数，不包括第一次 quality 为 100 的编码
+     */
+    private const val MAX_QUALITY_SEARCH_ITERATIONS = 6
+
+    /**
+     * 压缩的统计数据
+     *
+     * @property method         压缩方法的名字
+     * @property timeMillis     耗时，毫秒
+     * @property inputBytes     原图的大小：原图为文件时是文件大小，为 Bitmap 时是所占内存大小
+     * @property outputBytes    压缩后的大小：结果为图片数据时是数据大小，为 Bitmap 时是所占内存大小
+     */
+    data class CompressMetrics(
+        val method: String,
+        val timeMillis: Long,
+        val inputWidth: Int,
+        val inputHeight: Int,
+        val inputBytes: Long,
+        val outputWidth: Int,
+        val outputHeight: Int,
+        val outputBytes: Long
+    )
+
+    /**
+     * 压缩统计数据的监听，在压缩的线程中回调。默认为 null，即不统计。
+     * 统计数据都来自压缩过程中已有的数据，不会为了统计而额外编码或者解码图片。
+     */
+    @Volatile
+    var compressMetricsListener: ((CompressMetrics) -> Unit)? = null
 
     /**
      * 从 Drawable 中提取颜色
@@ -150,7 +184,8 @@ object ImageUtils {
 
     /**
      * 质量压缩。（宽高及内存大小都不变、只改变磁盘大小）。
-     * 通过 quality 逐渐减小循环进行压缩，直到达到目标尺寸或者 quality 小于等于 0 为止。
+     * 查找满足目标尺寸的最大 quality：先用 quality 100 编码，再根据已经编码的结果估算下一次的 quality，在二分查找的区间内逐渐逼近，
+     * 最多编码[MAX_QUALITY_SEARCH_ITERATIONS]次。quality 为 0 仍然超过目标尺寸时，返回 quality 为 0 的结果。
      * 使用场景：将图片压缩后将图片上传到服务器，或者保存到本地，根据实际需求
      *
      * 不会减少图片的像素，它是在保持像素的前提下改变图片的位深及透明度等，来达到压缩图片的目的。
@@ -164,56 +199,290 @@ object ImageUtils {
      */
     suspend fun compressByQuality(context: Context, bitmap: Bitmap?, maxSize: Int): ByteArray? = withContext(Dispatchers.IO) {
         if (null == bitmap || bitmap.isRecycled || maxSize <= 0) return@withContext null
-        logOrigin(context, bitmap)
-
-        var quality = 100
-        ByteArrayOutputStream().use {
-            // 注意：这里不能设置为CompressFormat.PNG，因为png图片是无损的，不能进行压缩。bytes.length不会变化。
-            bitmap.compress(Bitmap.CompressFormat.JPEG, quality, it)
-
-            // 循环判断压缩后图片是否超过限制大小
-            while (it.toByteArray().size / 1024 > maxSize && quality > 0) {
-                quality -= 10
-                // 清空baos
-                it.reset()
-                bitmap.compress(Bitmap.CompressFormat.JPEG, quality, it)
+        val startNanos = System.nanoTime()
+        // 按照 KB 取整后不超过 maxSize
+        val maxBytes = maxSize * 1024L + 1023
+        // 注意：这里不能设置为CompressFormat.PNG，因为png图片是无损的，不能进行压缩。bytes.length不会变化。
+        var current = ByteArrayOutputStream()
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 100, current)
+        // 满足大小的编码结果。和 current 交换使用，避免每次都复制数据
+        var best: ByteArrayOutputStream? = null
+        if (current.size() > maxBytes) {
+            // 小于等于 fitQuality 的都满足，大于等于 failQuality 的都不满足。
+            // 开始时用第一次编码的结果估算一个 quality 为 -1 的虚拟的点：JPEG 在最低 quality 时大约为 quality 100 时的 1/20。
+            var fitQuality = -1
+            var fitSize = current.size() / 20.0
+            var failQuality = 100
+            var failSize = current.size().toDouble()
+            var iterations = 0
+            // 区间小于等于 4 时结果和最优的 quality 最多相差 3，已经足够精确
+            while (failQuality - fitQuality > 4 && iterations++ < MAX_QUALITY_SEARCH_ITERATIONS) {
+                val quality = estimateQuality(fitQuality, fitSize, failQuality, failSize, maxBytes)
+                current.reset()
+                bitmap.compress(Bitmap.CompressFormat.JPEG, quality, current)
+                if (current.size() <= maxBytes) {
+                    fitQuality = quality
+                    fitSize = current.size().toDouble()
+                    val fit = current
+                    current = best ?: ByteArrayOutputStream()
+                    best = fit
+                } else {
+                    failQuality = quality
+                    failSize = current.size().toDouble()
+                }
             }
-
-            it.toByteArray().apply {
-                logCompress(context, this)
+            if (best == null && failQuality != 0) {
+                current.reset()
+                bitmap.compress(Bitmap.CompressFormat.JPEG, 0, current)
             }
         }
+        (best ?: current).toByteArray().apply {
+            reportMetrics(
+                "compressByQuality", startNanos,
+                bitmap.width, bitmap.height, getBitmapSize(bitmap).toLong(),
+                bitmap.width, bitmap.height, size.toLong()
+            )
+        }
+    }
+
+    /**
+     * 在两个已经编码的点之间估算编码大小为[maxBytes]的 quality。JPEG 的大小随 quality 近似指数增长，所以按照大小的对数线性插值。
+     * 估算结果限制在区间中间的一半，所以估算不准时每次仍然至少把区间缩小 1/4。
+     */
+    private fun estimateQuality(fitQuality: Int, fitSize: Double, failQuality: Int, failSize: Double, maxBytes: Long): Int {
+        val span = failQuality - fitQuality
+        val estimated = if (maxBytes <= fitSize) {
+            fitQuality
+        } else {
+            fitQuality + (ln(maxBytes / fitSize) / ln(failSize / fitSize) * span).toInt()
+        }
+        return estimated
+            .coerceIn(fitQuality + span / 4, failQuality - span / 4)
+            .coerceIn(fitQuality + 1, failQuality - 1)
     }
 
     /**
      * 采样率压缩（会减小宽高、内存大小、磁盘大小）。
      * 通过设置 BitmapFactory.Options.inSampleSize，来减小图片的分辨率，进而减小图片所占用的磁盘空间和内存大小。
      *
-     * 相比直接使用 scale 方法压缩，效率较高，解析速度快。
-     * 但是采样率 inSampleSize 的取值只能是 2 的次方数(例如:inSampleSize = 15,实际取值为 8;
-     * inSampleSize = 17,实际取值为 16;实际取值会往 2 的次方结算),因此该方法不能精确的指定图片的大小
+     * 只读取一次宽高，然后按照 2 的次方的采样率解码（不会解码原图大小的 Bitmap），最后在一次 Matrix 变换中同时完成：
+     * 1、精确缩放到宽高都不小于目标宽高的最小尺寸（保持宽高比，不会放大）；
+     * 2、按照 Exif 中的方向旋转到正常角度。目标宽高是旋转后的宽高。
      *
      * @param imagePath
      * @param reqWidth  px
      * @param reqHeight px
+     * @param config    解码使用的[Bitmap.Config]，比如不需要透明度时使用[Bitmap.Config.RGB_565]可以减少一半内存
+     * @param reusable  用于复用内存的 Bitmap（[BitmapFactory.Options.inBitmap]），必须是可变的。复用后它的内容会被覆盖，不能再使用；
+     * 不能复用时（比如内存不够大）会忽略它。
      * @return
      */
-    suspend fun compressByInSampleSize(context: Context, imagePath: String, reqWidth: Int, reqHeight: Int): Bitmap? =
-        withContext(Dispatchers.IO) {
-            if (imagePath.isEmpty() || reqWidth <= 0 || reqHeight <= 0) return@withContext null
+    suspend fun compressByInSampleSize(
+        context: Context,
+        imagePath: String,
+        reqWidth: Int,
+        reqHeight: Int,
+        config: Bitmap.Config = Bitmap.Config.ARGB_8888,
+        reusable: Bitmap? = null
+    ): Bitmap? {
+        if (imagePath.isEmpty()) return null
+        return compressByInSampleSize(File(imagePath), reqWidth, reqHeight, config, reusable)
+    }
+
+    /**
+     * 采样率压缩，见[compressByInSampleSize]
+     */
+    suspend fun compressByInSampleSize(
+        file: File,
+        reqWidth: Int,
+        reqHeight: Int,
+        config: Bitmap.Config = Bitmap.Config.ARGB_8888,
+        reusable: Bitmap? = null
+    ): Bitmap? = withContext(Dispatchers.IO) {
+        decodeToTarget(object : DecodeSource {
+            override val length: Long = file.length()
+            override fun decode(options: BitmapFactory.Options): Bitmap? = BitmapFactory.decodeFile(file.absolutePath, options)
+            override fun exif(): ExifInterface = ExifInterface(file.absolutePath)
+        }, reqWidth, reqHeight, config, reusable)
+    }
 
-            logOrigin(context, BitmapFactory.decodeFile(imagePath))
+    /**
+     * 采样率压缩，见[compressByInSampleSize]。
+     * 注意：Android 7.0 以下不能从 Uri 读取 Exif，所以不会旋转。
+     */
+    suspend fun compressByInSampleSize(
+        context: Context,
+        uri: Uri,
+        reqWidth: Int,
+        reqHeight: Int,
+        config: Bitmap.Config = Bitmap.Config.ARGB_8888,
+        reusable: Bitmap? = null
+    ): Bitmap? = withContext(Dispatchers.IO) {
+        val contentResolver = context.applicationContext.contentResolver
+        decodeToTarget(object : DecodeSource {
+            override val length: Long = -1
+            override fun decode(options: BitmapFactory.Options): Bitmap? =
+                contentResolver.openInputStream(uri)?.use { BitmapFactory.decodeStream(it, null, options) }
+
+            override fun exif(): ExifInterface? =
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                    contentResolver.openInputStream(uri)?.use { ExifInterface(it) }
+                } else {
+                    null
+                }
+        }, reqWidth, reqHeight, config, reusable)
+    }
+
+    /**
+     * 采样率压缩，见[compressByInSampleSize]。不会关闭[fileDescriptor]，返回时它的偏移量不变。
+     * 注意：Android 7.0 以下不能从 FileDescriptor 读取 Exif，所以不会旋转；不能 seek 的 FileDescriptor（比如管道）也不会旋转。
+     */
+    suspend fun compressByInSampleSize(
+        fileDescriptor: FileDescriptor,
+        reqWidth: Int,
+        reqHeight: Int,
+        config: Bitmap.Config = Bitmap.Config.ARGB_8888,
+        reusable: Bitmap? = null
+    ): Bitmap? = withContext(Dispatchers.IO) {
+        decodeToTarget(object : DecodeSource {
+            override val length: Long = -1
+            // 对于可以 seek 的 fileDescriptor，BitmapFactory 解码后会恢复它的偏移量，所以可以解码多次
+            override fun decode(options: BitmapFactory.Options): Bitmap? =
+                BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options)
+
+            // ExifInterface 读取时会移动 fileDescriptor 的偏移量（dup 出来的描述符也共享偏移量），
+            // 所以要在读取后恢复，否则第二次解码会从错误的位置开始。
+            override fun exif(): ExifInterface? {
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return null
+                val offset = try {
+                    Os.lseek(fileDescriptor, 0, OsConstants.SEEK_CUR)
+                } catch (e: ErrnoException) {
+                    // 不能 seek，读取 Exif 后就不能再解码了
+                    return null
+                }
+                return try {
+                    ExifInterface(fileDescriptor)
+                } finally {
+                    try {
+                        Os.lseek(fileDescriptor, offset, OsConstants.SEEK_SET)
+                    } catch (e: ErrnoException) {
+                        e.printStackTrace()
+                    }
+                }
+            }
+        }, reqWidth, reqHeight, config, reusable)
+    }
+
+    /**
+     * 需要解码的图片。宽高和图片需要分两次读取，所以每次读取都要重新打开。
+     *
+     * @property length 图片数据的大小，不能直接获取时为 -1
+     */
+    private interface DecodeSource {
+        val length: Long
 
+        fun decode(options: BitmapFactory.Options): Bitmap?
+
+        fun exif(): ExifInterface?
+    }
+
+    private fun decodeToTarget(
+        source: DecodeSource,
+        reqWidth: Int,
+        reqHeight: Int,
+        config: Bitmap.Config,
+        reusable: Bitmap?
+    ): Bitmap? {
+        if (reqWidth <= 0 || reqHeight <= 0) return null
+        val startNanos = System.nanoTime()
+        return try {
             val options = BitmapFactory.Options()
             // 开始读入图片，当inJustDecodeBounds设置为true的时候，BitmapFactory通过decodeXXXX解码图片时，将会返回空(null)的Bitmap对象，这样可以避免Bitmap的内存分配，但是它可以返回Bitmap的宽度、高度以及MimeType。
             options.inJustDecodeBounds = true
-            BitmapFactory.decodeFile(imagePath, options)
-            options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight)//设置缩放比例
+            source.decode(options)
+            val inputWidth = options.outWidth
+            val inputHeight = options.outHeight
+            if (inputWidth <= 0 || inputHeight <= 0) return null
+
+            val degree = try {
+                source.exif()?.getRotationDegrees() ?: 0
+            } catch (e: IOException) {
+                e.printStackTrace()
+                0
+            }
+            // 旋转 90 度或者 270 度时，原图的宽对应目标的高
+            val rotated = degree % 180 != 0
+            val targetWidth = if (rotated) reqHeight else reqWidth
+            val targetHeight = if (rotated) reqWidth else reqHeight
+
+            options.inSampleSize = calculateInSampleSize(options, targetWidth, targetHeight)//设置缩放比例
             options.inJustDecodeBounds = false
-            // 得到的图片的宽或者高会比期望值大一点。
-            BitmapFactory.decodeFile(imagePath, options)?.apply {
-                logCompress(context, this)
+            options.inPreferredConfig = config
+            if (reusable != null && canReuse(reusable, options)) {
+                options.inBitmap = reusable
             }
+            val sampled = try {
+                source.decode(options)
+            } catch (e: IllegalArgumentException) {
+                // inBitmap 不能复用时抛出异常，不复用重新解码
+                if (options.inBitmap == null) throw e
+                options.inBitmap = null
+                source.decode(options)
+            } ?: return null
+
+            // 采样后的宽或者高会比期望值大一点，在旋转的同时精确缩放
+            val scale = maxOf(targetWidth.toFloat() / sampled.width, targetHeight.toFloat() / sampled.height).coerceAtMost(1f)
+            val matrix = Matrix()
+            if (scale < 1f) {
+                matrix.postScale(scale, scale)
+            }
+            if (degree != 0) {
+                matrix.postRotate(degree.toFloat())
+            }
+            val result = if (matrix.isIdentity) {
+                sampled
+            } else {
+                createBitmap(sampled, 0, 0, sampled.width, sampled.height, matrix, true).also {
+                    if (it !== sampled && sampled !== reusable) sampled.recycle()
+                }
+            }
+            reportMetrics(
+                "compressByInSampleSize", startNanos,
+                inputWidth, inputHeight, source.length,
+                result.width, result.height, getBitmapSize(result).toLong()
+            )
+            result
+        } catch (e: Exception) {
+            e.printStackTrace()
+            null
+        }
+    }
+
+    /**
+     * [reusable]的内存是否足够保存采样后的图片。Android 4.4 开始只要内存足够就可以复用。
+     */
+    private fun canReuse(reusable: Bitmap, options: BitmapFactory.Options): Boolean {
+        if (!reusable.isMutable || reusable.isRecycled) return false
+        val sampleSize = options.inSampleSize.coerceAtLeast(1)
+        val width = (options.outWidth + sampleSize - 1) / sampleSize
+        val height = (options.outHeight + sampleSize - 1) / sampleSize
+        val bytesPerPixel = when (options.inPreferredConfig) {
+            Bitmap.Config.ALPHA_8 -> 1
+            Bitmap.Config.RGB_565, Bitmap.Config.ARGB_4444 -> 2
+            else -> 4
+        }
+        return width.toLong() * height * bytesPerPixel <= reusable.allocationByteCount
+    }
+
+    /**
+     * 获取图片被旋转的角度
+     */
+    private fun ExifInterface.getRotationDegrees(): Int =
+        when (getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL)) {
+            ExifInterface.ORIENTATION_ROTATE_90 -> 90
+            ExifInterface.ORIENTATION_ROTATE_180 -> 180
+            ExifInterface.ORIENTATION_ROTATE_270 -> 270
+            else -> 0
         }
 
     /**
@@ -276,10 +545,14 @@ object ImageUtils {
     suspend fun compressByMatrix(context: Context, bitmap: Bitmap?, reqWidth: Int, reqHeight: Int): Bitmap? = withContext(Dispatchers.IO) {
         if (null == bitmap || bitmap.isRecycled || reqWidth <= 0 || reqHeight <= 0) return@withContext null
 
-        logOrigin(context, bitmap)
+        val startNanos = System.nanoTime()
         // 最后一个参数filter：如果是放大图片，filter决定是否平滑，如果是缩小图片，filter无影响，我们这里是缩小图片，所以直接设置为false
         Bitmap.createScaledBitmap(bitmap, reqWidth, reqHeight, true).apply {
-            logCompress(context, this)
+            reportMetrics(
+                "compressByMatrix", startNanos,
+                bitmap.width, bitmap.height, getBitmapSize(bitmap).toLong(),
+                width, height, getBitmapSize(this).toLong()
+            )
         }
     }
 
@@ -291,15 +564,7 @@ object ImageUtils {
         val bitmap = BitmapFactory.decodeFile(imagePath)
         // 获取图片文件被旋转的角度
         val degree = try {
-            when (ExifInterface(imagePath).getAttributeInt(
-                ExifInterface.TAG_ORIENTATION,
-                ExifInterface.ORIENTATION_NORMAL
-            )) {
-                ExifInterface.ORIENTATION_ROTATE_90 -> 90
-                ExifInterface.ORIENTATION_ROTATE_180 -> 180
-                ExifInterface.ORIENTATION_ROTATE_270 -> 270
-                else -> 0
-            }
+            ExifInterface(imagePath).getRotationDegrees()
         } catch (e: IOException) {
             e.printStackTrace()
             0
@@ -383,59 +648,18 @@ object ImageUtils {
 
     fun getFileLengthKB(file: File): Double = file.length() / 1024.0
 
-    private fun logOrigin(context: Context, bitmap: Bitmap?) {
-        if (null == bitmap || bitmap.isRecycled) {
-            Log.i(TAG, "原图：$bitmap")
-        } else {
-            val imageDataSize = bitmap2Bytes(bitmap)?.size ?: 0
-            Log.v(
-                TAG,
-                "原图：${bitmap.width} X ${bitmap.height}，所占内存大小：${getBitmapSizeKB(bitmap).maximumFractionDigits(2)}KB ${
-                    getBitmapSizeMB(bitmap).maximumFractionDigits(
-                        2
-                    )
-                }MB，所占磁盘大小：${
-                    (imageDataSize / 1024.0).maximumFractionDigits(2)
-                }KB ${(imageDataSize / 1024.0 / 1024.0).maximumFractionDigits(2)}MB"
-            )
-        }
-    }
-
-    private fun logCompress(context: Context, bitmap: Bitmap?) {
-        if (null == bitmap || bitmap.isRecycled) {
-            Log.d(TAG, "缩略图：$bitmap")
-        } else {
-            val imageDataSize = bitmap2Bytes(bitmap)?.size ?: 0
-            Log.w(
-                TAG,
-                "缩略图：${bitmap.width} X ${bitmap.height}，所占内存大小：${getBitmapSizeKB(bitmap).maximumFractionDigits(2)}KB ${
-                    getBitmapSizeMB(
-                        bitmap
-                    ).maximumFractionDigits(2)
-                }MB，所占磁盘大小：${
-                    (imageDataSize / 1024.0).maximumFractionDigits(2)
-                }KB ${(imageDataSize / 1024.0 / 1024.0).maximumFractionDigits(2)}MB"
-            )
-        }
-    }
-
-    private fun logCompress(context: Context, data: ByteArray?) {
-        data ?: return
-        val bitmap = BitmapFactory.decodeByteArray(data, 0, data.size)
-        if (null == bitmap || bitmap.isRecycled) {
-            Log.d(TAG, "缩略图：$bitmap")
-        } else {
-            val imageDataSize = data?.size ?: 0
-            Log.w(
-                TAG,
-                "缩略图：${bitmap.width} X ${bitmap.height}，所占内存大小：${getBitmapSizeKB(bitmap).maximumFractionDigits(2)}KB ${
-                    getBitmapSizeMB(
-                        bitmap
-                    ).maximumFractionDigits(2)
-                }MB，所占磁盘大小：${
-                    (imageDataSize / 1024.0).maximumFractionDigits(2)
-                }KB ${(imageDataSize / 1024.0 / 1024.0).maximumFractionDigits(2)}MB"
-            )
-        }
+    private fun reportMetrics(
+        method: String,
+        startNanos: Long,
+        inputWidth: Int,
+        inputHeight: Int,
+        inputBytes: Long,
+        outputWidth: Int,
+        outputHeight: Int,
+        outputBytes: Long
+    ) {
+        val listener = compressMetricsListener ?: return
+        val timeMillis = (System.nanoTime() - startNanos) / 1_000_000
+        listener(CompressMetrics(method, timeMillis, inputWidth, inputHeight, inputBytes, outputWidth, outputHeight, outputBytes))
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,32 @@
+package com.like.common.util
+
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 为每个 key 维护一个版本号，数据改变时版本号加一，用于实现按 key 监听数据的 Flow。
+ * 使用 StateFlow 保存版本号，所以收集得慢时只会合并通知，不会丢失最后一次改变。
+ * 只为被监听过的 key 创建版本号。
+ */
+internal class KeyChangeNotifier {
+    private val versions = ConcurrentHashMap<String, MutableStateFlow<Long>>()
+
+    fun changes(key: String): Flow<Long> =
+        versions[key] ?: MutableStateFlow(0L).let { versions.putIfAbsent(key, it) ?: it }
+
+    fun notifyChanged(key: String) {
+        versions[key]?.let { increase(it) }
+    }
+
+    fun notifyAllChanged() {
+        versions.values.forEach { increase(it) }
+    }
+
+    private fun increase(version: MutableStateFlow<Long>) {
+        synchronized(version) {
+            version.value = version.value + 1
+        }
+    }
+
+}
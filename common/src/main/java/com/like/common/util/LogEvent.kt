@@ -0,0 +1,223 @@
+package com.like.common.util
+
+import java.nio.BufferOverflowException
+import java.nio.ByteBuffer
+
+/**
+ * 结构化日志，由[Logger.event]创建。
+ * 基本类型的字段直接保存在数组中，不会装箱；每个线程复用同一个实例，[log]之后就会被回收，所以不能在[log]之后继续使用。
+ * 最多保存[MAX_FIELD_COUNT]个字段，超过的字段会被忽略。
+ *
+ * 示例：Logger.event("upload").kv("bytes", n).kv("ms", t).log()
+ *
+ * 写入日志文件时保存为紧凑的二进制格式，只有打印到 logcat 或者读取日志文件时才会转换为文本。
+ */
+class LogEvent internal constructor(private val enabled: Boolean) {
+    companion object {
+        private const val INITIAL_CAPACITY = 8
+
+        /**
+         * 字段数量以 short 保存
+         */
+        const val MAX_FIELD_COUNT = Short.MAX_VALUE.toInt()
+
+        /**
+         * 不会被打印时返回的实例，所有方法都不做任何事情，可以在多个线程中共享。
+         */
+        internal val DISABLED = LogEvent(false)
+
+        private val pool = object : ThreadLocal<LogEvent>() {
+            override fun initialValue(): LogEvent = LogEvent(true)
+        }
+
+        /**
+         * 获取当前线程复用的实例。
+         * 如果正在使用中（比如在 kv() 的参数中又创建了 event，或者之前创建的 event 没有调用[log]），就新建一个并替换复用的实例，
+         * 正在使用的实例不受影响；没有调用[log]的实例不会一直占用复用的位置，之后的调用仍然可以复用。
+         */
+        internal fun obtain(name: String, tag: String, level: Int): LogEvent {
+            var event = pool.get()!!
+            if (event.inUse) {
+                event = LogEvent(true)
+                pool.set(event)
+            }
+            event.inUse = true
+            event.name = name
+            event.tag = tag
+            event.level = level
+            return event
+        }
+    }
+
+    internal var name: String = ""
+    internal var tag: String = ""
+    internal var level: Int = 0
+    private var inUse = false
+    private var size = 0
+    private var keys = arrayOfNulls<String>(INITIAL_CAPACITY)
+    private var types = ByteArray(INITIAL_CAPACITY)
+    private var longs = LongArray(INITIAL_CAPACITY)// 整数、浮点数（保存原始的位）、布尔值
+    private var strings = arrayOfNulls<String>(INITIAL_CAPACITY)
+    private var buffer: ByteBuffer = ByteBuffer.allocate(256)
+
+    fun kv(key: String, value: Int): LogEvent = putLong(key, LogEventCodec.TYPE_LONG, value.toLong())
+
+    fun kv(key: String, value: Long): LogEvent = putLong(key, LogEventCodec.TYPE_LONG, value)
+
+    fun kv(key: String, value: Float): LogEvent = putLong(key, LogEventCodec.TYPE_DOUBLE, value.toDouble().toRawBits())
+
+    fun kv(key: String, value: Double): LogEvent = putLong(key, LogEventCodec.TYPE_DOUBLE, value.toRawBits())
+
+    fun kv(key: String, value: Boolean): LogEvent = putLong(key, LogEventCodec.TYPE_BOOLEAN, if (value) 1L else 0L)
+
+    fun kv(key: String, value: String?): LogEvent {
+        if (!enabled) return this
+        val index = next(key, if (value == null) LogEventCodec.TYPE_NULL else LogEventCodec.TYPE_STRING)
+        if (index >= 0) strings[index] = value
+        return this
+    }
+
+    /**
+     * 打印日志，之后此实例会被回收。
+     */
+    fun log() {
+        if (!enabled) return
+        try {
+            Logger.printEvent(tag, level, encode())
+        } finally {
+            recycle()
+        }
+    }
+
+    private fun putLong(key: String, type: Byte, value: Long): LogEvent {
+        if (!enabled) return this
+        val index = next(key, type)
+        if (index >= 0) longs[index] = value
+        return this
+    }
+
+    /**
+     * @return 字段的位置，字段数量已经达到[MAX_FIELD_COUNT]时返回 -1
+     */
+    private fun next(key: String, type: Byte): Int {
+        if (size == MAX_FIELD_COUNT) return -1
+        if (size == keys.size) {
+            val capacity = (size * 2).coerceAtMost(MAX_FIELD_COUNT)
+            keys = keys.copyOf(capacity)
+            types = types.copyOf(capacity)
+            longs = longs.copyOf(capacity)
+            strings = strings.copyOf(capacity)
+        }
+        val index = size++
+        keys[index] = key
+        types[index] = type
+        return index
+    }
+
+    /**
+     * 编码为二进制数据，格式见[LogEventCodec]
+     */
+    private fun encode(): ByteArray {
+        while (true) {
+            buffer.clear()
+            try {
+                LogEventCodec.putString(buffer, name)
+                buffer.putShort(size.toShort())
+                for (i in 0 until size) {
+                    LogEventCodec.putString(buffer, keys[i]!!)
+                    val type = types[i]
+                    buffer.put(type)
+                    when (type) {
+                        LogEventCodec.TYPE_LONG, LogEventCodec.TYPE_DOUBLE -> buffer.putLong(longs[i])
+                        LogEventCodec.TYPE_BOOLEAN -> buffer.put(longs[i].toByte())
+                        LogEventCodec.TYPE_STRING -> LogEventCodec.putLongString(buffer, strings[i]!!)
+                    }
+                }
+                return buffer.array().copyOf(buffer.position())
+            } catch (e: BufferOverflowException) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2)
+            }
+        }
+    }
+
+    private fun recycle() {
+        for (i in 0 until size) {
+            keys[i] = null
+            strings[i] = null
+        }
+        size = 0
+        name = ""
+        tag = ""
+        inUse = false
+    }
+
+}
+
+/**
+ * 结构化日志的二进制格式（大端序）：
+ *      nameLength(short) name(UTF-8) fieldCount(short)
+ *      每个字段：keyLength(short) key(UTF-8) type(byte) value
+ * value 根据 type：
+ *      [TYPE_LONG]     long
+ *      [TYPE_DOUBLE]   long，即 Double.toRawBits()
+ *      [TYPE_BOOLEAN]  byte，0 或者 1
+ *      [TYPE_STRING]   length(int) UTF-8
+ *      [TYPE_NULL]     无
+ */
+internal object LogEventCodec {
+    const val TYPE_LONG: Byte = 1
+    const val TYPE_DOUBLE: Byte = 2
+    const val TYPE_BOOLEAN: Byte = 3
+    const val TYPE_STRING: Byte = 4
+    const val TYPE_NULL: Byte = 5
+
+    /**
+     * 超过 short 的长度限制时截断，只在 UTF-8 字符的边界截断，不留下半个字符
+     */
+    fun putString(buffer: ByteBuffer, value: String) {
+        val bytes = value.toByteArray(Charsets.UTF_8)
+        var length = bytes.size.coerceAtMost(Short.MAX_VALUE.toInt())
+        if (length < bytes.size) {
+            while (length > 0 && (bytes[length].toInt() and 0xC0) == 0x80) {
+                length--
+            }
+        }
+        buffer.putShort(length.toShort())
+        buffer.put(bytes, 0, length)
+    }
+
+    fun putLongString(buffer: ByteBuffer, value: String) {
+        val bytes = value.toByteArray(Charsets.UTF_8)
+        buffer.putInt(bytes.size)
+        buffer.put(bytes)
+    }
+
+    /**
+     * 转换为文本：name key1=value1 key2=value2
+     */
+    fun render(data: ByteArray): String {
+        val buffer = ByteBuffer.wrap(data)
+        val sb = StringBuilder(data.size * 2)
+        sb.append(getString(buffer, buffer.short.toInt()))
+        val fieldCount = buffer.short.toInt()
+        for (i in 0 until fieldCount) {
+            sb.append(' ').append(getString(buffer, buffer.short.toInt())).append('=')
+            when (buffer.get()) {
+                TYPE_LONG -> sb.append(buffer.long)
+                TYPE_DOUBLE -> sb.append(Double.fromBits(buffer.long))
+                TYPE_BOOLEAN -> sb.append(buffer.get() != 0.toByte())
+                TYPE_STRING -> sb.append(getString(buffer, buffer.int))
+                TYPE_NULL -> sb.append("null")
+                else -> return sb.toString()// 无法识别的类型，后面的数据无法解析
+            }
+        }
+        return sb.toString()
+    }
+
+    private fun getString(buffer: ByteBuffer, length: Int): String {
+        val value = String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, Charsets.UTF_8)
+        buffer.position(buffer.position() + length)
+        return value
+    }
+
+}
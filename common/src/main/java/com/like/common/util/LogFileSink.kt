@@ -0,0 +1,227 @@
+package com.like.common.util
+
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * 把日志写入内存映射文件（mmap）的文件输出。
+ *
+ * 日志按段（segment）存储在[dir]目录下，每个段是一个固定大小的文件，写满后新建下一个段，超过[maxSegmentCount]个时删除最早的段。
+ * 因为写入的是[MappedByteBuffer]，数据直接进入系统的页缓存，即使进程被杀死，已经写入的数据也会由系统写回磁盘，所以不需要每条日志都 fsync，
+ * 下次启动时可以读取到崩溃前的最后几条日志。
+ *
+ * 段文件格式（大端序）：
+ * 头部[HEADER_SIZE]字节：
+ *      magic(int) version(short) 保留(short) writePosition(int) recordCount(int)
+ *      minTime(long) maxTime(long) levelMask(int) 保留(int) tagBloom(long)
+ * 其中 minTime、maxTime、levelMask、tagBloom 是段内所有日志的摘要，读取时可以据此跳过整个段。
+ * 记录：
+ *      length(int，整条记录的字节数) type(byte) level(byte) time(long)
+ *      tagLength(short) tag(UTF-8) bodyLength(int) body
+ * 文本日志（[RECORD_TYPE_TEXT]）的 body 为 UTF-8 编码的字符串；结构化日志（[RECORD_TYPE_EVENT]）的 body 格式见[LogEventCodec]。
+ *
+ * @param dir               段文件所在目录
+ * @param maxSegmentSize    每个段文件的大小（字节）。一个段放不下的文本日志会被截断，结构化日志会被丢弃
+ * @param maxSegmentCount   最多保留的段文件数量
+ */
+internal class LogFileSink(
+    private val dir: File,
+    private val maxSegmentSize: Int,
+    private val maxSegmentCount: Int
+) {
+    companion object {
+        const val MAGIC = 0x4C4F4753// "LOGS"
+        const val VERSION: Short = 1
+        const val HEADER_SIZE = 64
+        const val SEGMENT_FILE_SUFFIX = ".mlog"
+        const val RECORD_TYPE_TEXT: Byte = 1
+        const val RECORD_TYPE_EVENT: Byte = 2
+
+        const val OFFSET_WRITE_POSITION = 8
+        const val OFFSET_RECORD_COUNT = 12
+        const val OFFSET_MIN_TIME = 16
+        const val OFFSET_MAX_TIME = 24
+        const val OFFSET_LEVEL_MASK = 32
+        const val OFFSET_TAG_BLOOM = 40
+
+        // length + type + level + time + tagLength + bodyLength
+        const val RECORD_FIXED_SIZE = 4 + 1 + 1 + 8 + 2 + 4
+
+        /**
+         * tag 在段摘要中对应的 bloom 位
+         */
+        fun tagBloomBit(tag: String): Long = 1L shl (tag.hashCode() and 63)
+
+        /**
+         * 按文件名（即段序号）升序返回目录下的所有段文件
+         */
+        fun listSegments(dir: File): List<File> =
+            dir.listFiles { file -> file.isFile && file.name.endsWith(SEGMENT_FILE_SUFFIX) }
+                ?.sortedBy { it.name }
+                ?: emptyList()
+
+        /**
+         * 依次读取段文件中的所有记录
+         */
+        fun forEachRecord(segment: File, action: (type: Byte, level: Int, timeMillis: Long, tag: String, body: ByteArray) -> Unit) {
+            RandomAccessFile(segment, "r").use { raf ->
+                val length = raf.length()
+                if (length < HEADER_SIZE) return
+                val buffer = raf.channel.map(FileChannel.MapMode.READ_ONLY, 0, length)
+                if (buffer.getInt(0) != MAGIC) return
+                val end = buffer.getInt(OFFSET_WRITE_POSITION).coerceAtMost(length.toInt())
+                var position = HEADER_SIZE
+                while (position + RECORD_FIXED_SIZE <= end) {
+                    buffer.position(position)
+                    val recordLength = buffer.int
+                    if (recordLength < RECORD_FIXED_SIZE || position + recordLength > end) return
+                    val type = buffer.get()
+                    val level = buffer.get().toInt()
+                    val timeMillis = buffer.long
+                    val tag = ByteArray(buffer.short.toInt()).also { buffer.get(it) }
+                    val body = ByteArray(buffer.int).also { buffer.get(it) }
+                    action(type, level, timeMillis, String(tag, Charsets.UTF_8), body)
+                    position += recordLength
+                }
+            }
+        }
+    }
+
+    private var segmentSeq = 0L
+    private var buffer: MappedByteBuffer? = null
+
+    init {
+        require(maxSegmentSize > HEADER_SIZE + RECORD_FIXED_SIZE) { "maxSegmentSize is too small" }
+        require(maxSegmentCount > 0) { "maxSegmentCount must be > 0" }
+        if (!dir.exists()) {
+            dir.mkdirs()
+        }
+        recover()
+    }
+
+    /**
+     * 继续写入上次进程留下的最后一个段，这样崩溃前的日志和本次的日志在同一个段中连续保存。
+     */
+    private fun recover() {
+        val last = listSegments(dir).lastOrNull() ?: return
+        segmentSeq = last.nameWithoutExtension.toLongOrNull() ?: return
+        try {
+            if (last.length() != maxSegmentSize.toLong()) return
+            val mapped = map(last)
+            val writePosition = mapped.getInt(OFFSET_WRITE_POSITION)
+            if (mapped.getInt(0) == MAGIC && writePosition in HEADER_SIZE..maxSegmentSize) {
+                mapped.position(writePosition)
+                buffer = mapped
+            }
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+    }
+
+    @Synchronized
+    fun appendText(level: Int, tag: String, text: String, timeMillis: Long) {
+        append(RECORD_TYPE_TEXT, level, tag, text.toByteArray(Charsets.UTF_8), timeMillis)
+    }
+
+    @Synchronized
+    fun append(type: Byte, level: Int, tag: String, body: ByteArray, timeMillis: Long) {
+        try {
+            val tagBytes = tag.toByteArray(Charsets.UTF_8).let {
+                if (it.size > Short.MAX_VALUE) it.copyOf(Short.MAX_VALUE.toInt()) else it
+            }
+            val maxBodySize = maxSegmentSize - HEADER_SIZE - RECORD_FIXED_SIZE - tagBytes.size
+            var bodySize = body.size
+            if (bodySize > maxBodySize) {
+                // 截断后的结构化日志无法解码，一个段放不下时直接丢弃
+                if (type != RECORD_TYPE_TEXT) return
+                // 文本只在 UTF-8 字符的边界截断，不留下半个字符
+                bodySize = maxBodySize
+                while (bodySize > 0 && (body[bodySize].toInt() and 0xC0) == 0x80) {
+                    bodySize--
+                }
+            }
+            val recordLength = RECORD_FIXED_SIZE + tagBytes.size + bodySize
+            var mapped = buffer
+            if (mapped == null || mapped.remaining() < recordLength) {
+                mapped = rotate()
+            }
+            mapped.putInt(recordLength)
+            mapped.put(type)
+            mapped.put(level.toByte())
+            mapped.putLong(timeMillis)
+            mapped.putShort(tagBytes.size.toShort())
+            mapped.put(tagBytes)
+            mapped.putInt(bodySize)
+            mapped.put(body, 0, bodySize)
+            updateHeader(mapped, level, tag, timeMillis)
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+    }
+
+    /**
+     * 记录写完后再更新头部的 writePosition，所以写到一半时进程被杀死，读取时只会丢弃这一条不完整的记录。
+     */
+    private fun updateHeader(mapped: MappedByteBuffer, level: Int, tag: String, timeMillis: Long) {
+        val recordCount = mapped.getInt(OFFSET_RECORD_COUNT)
+        if (recordCount == 0 || timeMillis < mapped.getLong(OFFSET_MIN_TIME)) {
+            mapped.putLong(OFFSET_MIN_TIME, timeMillis)
+        }
+        if (timeMillis > mapped.getLong(OFFSET_MAX_TIME)) {
+            mapped.putLong(OFFSET_MAX_TIME, timeMillis)
+        }
+        mapped.putInt(OFFSET_LEVEL_MASK, mapped.getInt(OFFSET_LEVEL_MASK) or (1 shl (level and 31)))
+        mapped.putLong(OFFSET_TAG_BLOOM, mapped.getLong(OFFSET_TAG_BLOOM) or tagBloomBit(tag))
+        mapped.putInt(OFFSET_RECORD_COUNT, recordCount + 1)
+        mapped.putInt(OFFSET_WRITE_POSITION, mapped.position())
+    }
+
+    /**
+     * 新建下一个段，并删除超出数量的旧段。
+     */
+    private fun rotate(): MappedByteBuffer {
+        buffer = null
+        segmentSeq++
+        val segment = File(dir, segmentSeq.toString().padStart(19, '0') + SEGMENT_FILE_SUFFIX)
+        val mapped = map(segment)
+        mapped.putInt(0, MAGIC)
+        mapped.putShort(4, VERSION)
+        mapped.putInt(OFFSET_WRITE_POSITION, HEADER_SIZE)
+        mapped.position(HEADER_SIZE)
+        buffer = mapped
+
+        val segments = listSegments(dir)
+        if (segments.size > maxSegmentCount) {
+            segments.take(segments.size - maxSegmentCount).forEach { it.delete() }
+        }
+        return mapped
+    }
+
+    private fun map(segment: File): MappedByteBuffer =
+        RandomAccessFile(segment, "rw").use {
+            it.setLength(maxSegmentSize.toLong())
+            // 映射建立后，关闭文件不会影响映射
+            it.channel.map(FileChannel.MapMode.READ_WRITE, 0, maxSegmentSize.toLong())
+        }
+
+    /**
+     * 把当前段的数据强制同步到磁盘。只在需要保证设备断电也不丢失时调用，比如即将崩溃时。
+     */
+    @Synchronized
+    fun flush() {
+        try {
+            buffer?.force()
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+    }
+
+    @Synchronized
+    fun close() {
+        flush()
+        buffer = null
+    }
+
+}
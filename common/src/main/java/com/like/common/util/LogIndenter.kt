@@ -0,0 +1,264 @@
+package com.like.common.util
+
+import java.util.*
+
+/**
+ * 把字符逐个写入，每凑够一批就通过[emit]输出，用于适配 logcat 每条日志的长度限制。
+ * 只复用一个 StringBuilder，优先在换行处分批，一行超过[batchSize]时才会从行中间截断，并且不会拆开 UTF-16 代理对。
+ *
+ * @param batchSize 每批最多的字符数
+ * @param emit      输出一批字符
+ */
+internal class LogChunkWriter(private val batchSize: Int, private val emit: (String) -> Unit) {
+    private val sb = StringBuilder(batchSize)
+    private var lastNewLine = -1// sb 中最后一个换行符的位置
+
+    fun append(c: Char) {
+        if (sb.length >= batchSize) {
+            emitBatch()
+        }
+        sb.append(c)
+    }
+
+    fun append(s: CharSequence, start: Int = 0, end: Int = s.length) {
+        for (i in start until end) {
+            append(s[i])
+        }
+    }
+
+    /**
+     * 换行并缩进[depth]级，每级两个空格
+     */
+    fun newLine(depth: Int = 0) {
+        if (sb.isEmpty() && lastNewLine == -1) {
+            // 还没有输出过任何内容，不需要换行
+        } else {
+            if (sb.length >= batchSize) {
+                emitBatch()
+            }
+            lastNewLine = sb.length
+            sb.append('\n')
+        }
+        for (i in 0 until depth * 2) {
+            append(' ')
+        }
+    }
+
+    /**
+     * 输出剩余的字符
+     */
+    fun finish() {
+        if (sb.isNotEmpty()) {
+            emit(sb.toString())
+            sb.setLength(0)
+        }
+        lastNewLine = -1
+    }
+
+    private fun emitBatch() {
+        if (lastNewLine >= 0) {
+            if (lastNewLine > 0) {
+                emit(sb.substring(0, lastNewLine))
+            }
+            sb.delete(0, lastNewLine + 1)
+        } else {
+            var end = sb.length
+            if (end > 1 && Character.isHighSurrogate(sb[end - 1])) {
+                end--
+            }
+            emit(sb.substring(0, end))
+            sb.delete(0, end)
+        }
+        lastNewLine = -1
+    }
+
+}
+
+/**
+ * 单次遍历的 json 缩进格式化，不构建 JSONObject/JSONArray，边扫描边分批输出。
+ * 只检查括号是否匹配，不做完整的语法校验。
+ */
+internal object JsonIndenter {
+
+    /**
+     * @return json 格式是否有效。因为是边扫描边输出，所以无效时可能已经输出了一部分内容。
+     */
+    fun indent(json: String, writer: LogChunkWriter): Boolean {
+        val length = json.length
+        var i = skipWhitespace(json, 0)
+        if (i >= length || (json[i] != '{' && json[i] != '[')) return false
+
+        val arrayStack = BitSet()// 每一级是否为数组
+        var depth = 0
+        var inString = false
+        var escape = false
+        var closed = false// 最外层是否已经结束
+        while (i < length) {
+            val c = json[i]
+            if (inString) {
+                writer.append(c)
+                when {
+                    escape -> escape = false
+                    c == '\\' -> escape = true
+                    c == '"' -> inString = false
+                }
+                i++
+                continue
+            }
+            if (closed) {
+                if (!c.isWhitespace()) return false
+                i++
+                continue
+            }
+            when (c) {
+                '"' -> {
+                    inString = true
+                    writer.append(c)
+                }
+                '{', '[' -> {
+                    writer.append(c)
+                    val next = skipWhitespace(json, i + 1)
+                    if (next < length && json[next] == (if (c == '{') '}' else ']')) {
+                        // 空对象或者空数组不换行
+                        writer.append(json[next])
+                        i = next
+                        if (depth == 0) closed = true
+                    } else {
+                        arrayStack.set(depth, c == '[')
+                        depth++
+                        writer.newLine(depth)
+                    }
+                }
+                '}', ']' -> {
+                    depth--
+                    if (depth < 0 || arrayStack[depth] != (c == ']')) return false
+                    writer.newLine(depth)
+                    writer.append(c)
+                    if (depth == 0) closed = true
+                }
+                ',' -> {
+                    writer.append(c)
+                    writer.newLine(depth)
+                }
+                ':' -> {
+                    writer.append(c)
+                    writer.append(' ')
+                }
+                else -> if (!c.isWhitespace()) writer.append(c)
+            }
+            i++
+        }
+        return closed && !inString
+    }
+
+    private fun skipWhitespace(s: String, start: Int): Int {
+        var i = start
+        while (i < s.length && s[i].isWhitespace()) {
+            i++
+        }
+        return i
+    }
+
+}
+
+/**
+ * 单次遍历的 xml 缩进格式化，不构建 DOM，也不创建 Transformer，边扫描边分批输出。
+ * 只包含文本的元素会输出在同一行，比如：<name>like</name>。
+ * 只检查标签是否闭合，不校验标签名是否匹配。
+ */
+internal object XmlIndenter {
+
+    /**
+     * @return xml 格式是否有效。因为是边扫描边输出，所以无效时可能已经输出了一部分内容。
+     */
+    fun indent(xml: String, writer: LogChunkWriter): Boolean {
+        val length = xml.length
+        var depth = 0
+        var i = 0
+        var afterOpenTag = false// 上一个输出的是否是开始标签
+        var inlineText = false// 是否刚在开始标签后输出了同一行的文本
+        var hasElement = false
+        while (i < length) {
+            if (xml[i] == '<') {
+                val end = findTagEnd(xml, i)
+                if (end < 0) return false
+                when {
+                    xml.startsWith("</", i) -> {
+                        depth--
+                        if (depth < 0) return false
+                        if (!afterOpenTag && !inlineText) {
+                            writer.newLine(depth)
+                        }
+                        writer.append(xml, i, end)
+                        afterOpenTag = false
+                    }
+                    xml.startsWith("<?", i) || xml.startsWith("<!", i) || xml[end - 2] == '/' -> {
+                        writer.newLine(depth)
+                        writer.append(xml, i, end)
+                        afterOpenTag = false
+                        if (!xml.startsWith("<?", i) && !xml.startsWith("<!--", i)) hasElement = true
+                    }
+                    else -> {
+                        writer.newLine(depth)
+                        writer.append(xml, i, end)
+                        depth++
+                        afterOpenTag = true
+                        hasElement = true
+                    }
+                }
+                inlineText = false
+                i = end
+            } else {
+                var end = xml.indexOf('<', i)
+                if (end < 0) end = length
+                var start = i
+                var textEnd = end
+                while (start < textEnd && xml[start].isWhitespace()) start++
+                while (textEnd > start && xml[textEnd - 1].isWhitespace()) textEnd--
+                if (start < textEnd) {
+                    if (depth == 0) return false
+                    if (afterOpenTag && end < length && xml.startsWith("</", end)) {
+                        inlineText = true
+                    } else {
+                        writer.newLine(depth)
+                    }
+                    writer.append(xml, start, textEnd)
+                    afterOpenTag = false
+                }
+                i = end
+            }
+        }
+        return depth == 0 && hasElement
+    }
+
+    /**
+     * 查找标签结束的位置（'>'之后的位置），会跳过属性值中的'>'。
+     * @return 没有找到时返回 -1
+     */
+    private fun findTagEnd(xml: String, start: Int): Int {
+        fun endOf(terminator: String): Int {
+            val index = xml.indexOf(terminator, start)
+            return if (index < 0) -1 else index + terminator.length
+        }
+        return when {
+            xml.startsWith("<!--", start) -> endOf("-->")
+            xml.startsWith("<![CDATA[", start) -> endOf("]]>")
+            xml.startsWith("<?", start) -> endOf("?>")
+            else -> {
+                var quote = 0.toChar()
+                for (i in start + 1 until xml.length) {
+                    val c = xml[i]
+                    if (quote != 0.toChar()) {
+                        if (c == quote) quote = 0.toChar()
+                    } else if (c == '"' || c == '\'') {
+                        quote = c
+                    } else if (c == '>') {
+                        return i + 1
+                    }
+                }
+                -1
+            }
+        }
+    }
+
+}
@@ -0,0 +1,257 @@
+package com.like.common.util
+
+import android.util.Log
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * 一条待打印的日志记录。
+ * 由[LogRingBuffer]预先分配并循环复用，调用者不应该持有它的引用。
+ */
+internal class LogRecord {
+    var level: Int = 0
+    var tag: String = ""
+    var message: String = ""
+    var data: ByteArray? = null// 结构化日志编码后的数据，不为 null 时忽略 message
+    var timeMillis: Long = 0L
+
+    fun clear() {
+        tag = ""
+        message = ""
+        data = null
+    }
+}
+
+/**
+ * 预分配的无锁有界环形缓冲区（多生产者、多消费者）。
+ * 参考 Dmitry Vyukov 的 bounded MPMC queue：每个槽位有一个序号，生产者和消费者通过 CAS 抢占位置，不使用锁。
+ *
+ * @param capacity  容量，会向上取整为 2 的次方，最大为[MAX_CAPACITY]
+ */
+internal class LogRingBuffer(capacity: Int) {
+    companion object {
+        const val MAX_CAPACITY = 1 shl 30
+    }
+
+    private val mask: Int
+    private val slots: Array<LogRecord>
+    private val sequences: AtomicLongArray
+    private val enqueuePos = AtomicLong(0L)
+    private val dequeuePos = AtomicLong(0L)
+
+    init {
+        require(capacity in 1..MAX_CAPACITY) { "capacity must be in 1..$MAX_CAPACITY" }
+        var size = 1
+        while (size < capacity) {
+            size = size shl 1
+        }
+        mask = size - 1
+        slots = Array(size) { LogRecord() }
+        sequences = AtomicLongArray(size)
+        for (i in 0 until size) {
+            sequences.set(i, i.toLong())
+        }
+    }
+
+    /**
+     * 写入一条记录。
+     * @return 缓冲区已满时返回 false
+     */
+    fun offer(level: Int, tag: String, message: String, data: ByteArray?, timeMillis: Long): Boolean {
+        var pos = enqueuePos.get()
+        while (true) {
+            val index = (pos and mask.toLong()).toInt()
+            val dif = sequences.get(index) - pos
+            when {
+                dif == 0L -> if (enqueuePos.compareAndSet(pos, pos + 1)) {
+                    val slot = slots[index]
+                    slot.level = level
+                    slot.tag = tag
+                    slot.message = message
+                    slot.data = data
+                    slot.timeMillis = timeMillis
+                    sequences.set(index, pos + 1)
+                    return true
+                } else {
+                    pos = enqueuePos.get()
+                }
+                dif < 0L -> return false
+                else -> pos = enqueuePos.get()
+            }
+        }
+    }
+
+    /**
+     * 取出一条记录，复制到[out]中。
+     * @param out   为 null 时表示直接丢弃取出的记录
+     * @return 缓冲区为空时返回 false
+     */
+    fun poll(out: LogRecord?): Boolean {
+        var pos = dequeuePos.get()
+        while (true) {
+            val index = (pos and mask.toLong()).toInt()
+            val dif = sequences.get(index) - (pos + 1)
+            when {
+                dif == 0L -> if (dequeuePos.compareAndSet(pos, pos + 1)) {
+                    val slot = slots[index]
+                    if (out != null) {
+                        out.level = slot.level
+                        out.tag = slot.tag
+                        out.message = slot.message
+                        out.data = slot.data
+                        out.timeMillis = slot.timeMillis
+                    }
+                    slot.clear()
+                    sequences.set(index, pos + mask + 1)
+                    return true
+                } else {
+                    pos = dequeuePos.get()
+                }
+                dif < 0L -> return false
+                else -> pos = dequeuePos.get()
+            }
+        }
+    }
+
+    fun isEmpty(): Boolean {
+        val pos = dequeuePos.get()
+        return sequences.get((pos and mask.toLong()).toInt()) - (pos + 1) < 0L
+    }
+
+}
+
+/**
+ * 异步打印日志。
+ * 调用者线程只把日志放入[LogRingBuffer]，由一个后台线程取出后交给[consumer]打印。
+ *
+ * @param capacity      环形缓冲区容量
+ * @param policy        缓冲区满时的处理策略
+ * @param consumer      在后台线程中处理取出的日志记录
+ */
+internal class AsyncLogWriter(
+    capacity: Int,
+    private val policy: Logger.OverflowPolicy,
+    private val consumer: (LogRecord) -> Unit
+) {
+    companion object {
+        private const val BLOCK_PARK_NANOS = 50_000L
+    }
+
+    private val buffer = LogRingBuffer(capacity)
+    private val dropped = AtomicLong(0L)
+    private val record = LogRecord()// 只在后台线程中使用
+    private val droppedRecord = LogRecord()// 只在后台线程中使用
+
+    @Volatile
+    private var waiting = false
+
+    @Volatile
+    private var running = true
+
+    @Volatile
+    private var terminated = false// 后台线程已经退出
+
+    private val drainThread = Thread({ drain() }, "Logger-drain").apply {
+        isDaemon = true
+        start()
+    }
+
+    fun isDrainThread(): Boolean = Thread.currentThread() === drainThread
+
+    /**
+     * @return 已经[shutdown]时返回 false，调用者需要自己同步打印
+     */
+    fun offer(level: Int, tag: String, message: String, data: ByteArray? = null): Boolean {
+        if (!running) return false
+        val timeMillis = System.currentTimeMillis()
+        while (!buffer.offer(level, tag, message, data, timeMillis)) {
+            when (policy) {
+                Logger.OverflowPolicy.DROP_OLDEST -> {
+                    if (buffer.poll(null)) {
+                        dropped.incrementAndGet()
+                    }
+                }
+                Logger.OverflowPolicy.DROP_NEWEST -> {
+                    dropped.incrementAndGet()
+                    return true
+                }
+                Logger.OverflowPolicy.BLOCK -> {
+                    // 关闭后后台线程不会再等待新的日志，不能继续阻塞
+                    if (!running) return false
+                    LockSupport.unpark(drainThread)
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS)
+                }
+            }
+        }
+        if (terminated) {
+            // 后台线程已经退出，在当前线程中打印剩下的日志，包括刚写入的这一条
+            drainRemaining()
+        } else if (waiting) {
+            LockSupport.unpark(drainThread)
+        }
+        return true
+    }
+
+    /**
+     * 停止后台线程。停止前会把缓冲区中剩余的日志全部打印完。
+     */
+    fun shutdown() {
+        running = false
+        LockSupport.unpark(drainThread)
+    }
+
+    private fun drain() {
+        while (true) {
+            if (buffer.poll(record)) {
+                reportDropped()
+                consume(record)
+                continue
+            }
+            if (!running) {
+                // 在检查 running 之后、设置 terminated 之前写入的日志，由这里或者写入的线程打印
+                terminated = true
+                drainRemaining()
+                return
+            }
+            waiting = true
+            // 设置 waiting 后再检查一次，避免生产者在检查 waiting 之前已经写入而错过唤醒。
+            if (buffer.isEmpty() && running) {
+                LockSupport.park(this)
+            }
+            waiting = false
+        }
+    }
+
+    /**
+     * 后台线程退出后打印缓冲区中剩下的日志，后台线程和写入的线程都可能调用
+     */
+    @Synchronized
+    private fun drainRemaining() {
+        val remaining = LogRecord()
+        while (buffer.poll(remaining)) {
+            consume(remaining)
+        }
+    }
+
+    private fun reportDropped() {
+        if (dropped.get() == 0L) return
+        val count = dropped.getAndSet(0L)
+        if (count > 0L) {
+            droppedRecord.level = Log.WARN
+            droppedRecord.tag = Logger.TAG// 丢弃的日志可能来自任意 tag，所以不使用下一条日志的 tag
+            droppedRecord.message = "缓冲区已满，丢弃了 $count 条日志"
+            droppedRecord.timeMillis = record.timeMillis
+            consume(droppedRecord)
+        }
+    }
+
+    private fun consume(record: LogRecord) {
+        try {
+            consumer(record)
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.like.common.util
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 单个 tag 的限流和采样策略。所有判断都基于 CAS，不使用锁，可以在任意线程中频繁调用。
+ *
+ * 限流使用令牌桶的等价算法 GCRA（Generic Cell Rate Algorithm）：只记录下一条日志"理论上"应该到达的时间，
+ * 一个 AtomicLong 就可以表示令牌桶的全部状态。
+ *
+ * @param permitsPerSecond  每秒允许打印的日志条数，<=0 表示不限流
+ * @param burst             允许的突发条数，即令牌桶的容量
+ * @param sampleRate        每 sampleRate 条日志只打印 1 条，<=1 表示不采样
+ */
+internal class LogThrottle(
+    val permitsPerSecond: Double,
+    val burst: Int,
+    val sampleRate: Int
+) {
+    companion object {
+        private const val REPORT_INTERVAL_NANOS = 1_000_000_000L// 被忽略的日志条数最多每秒报告一次
+    }
+
+    private val intervalNanos = if (permitsPerSecond > 0) (1_000_000_000L / permitsPerSecond).toLong() else 0L
+    private val toleranceNanos = intervalNanos * (burst.coerceAtLeast(1) - 1)
+    private val theoreticalArrivalTime = AtomicLong(Long.MIN_VALUE)
+    private val sampleCounter = AtomicLong(0L)
+    private val suppressed = AtomicLong(0L)
+    private val lastReportTime = AtomicLong(Long.MIN_VALUE)
+
+    /**
+     * @return 是否允许打印
+     */
+    fun tryAcquire(nowNanos: Long): Boolean {
+        if (sampleRate > 1 && sampleCounter.getAndIncrement() % sampleRate != 0L) {
+            suppressed.incrementAndGet()
+            return false
+        }
+        if (intervalNanos <= 0L) {
+            return true
+        }
+        while (true) {
+            val tat = theoreticalArrivalTime.get()
+            val base = if (tat > nowNanos) tat else nowNanos
+            if (base - nowNanos > toleranceNanos) {
+                suppressed.incrementAndGet()
+                return false
+            }
+            if (theoreticalArrivalTime.compareAndSet(tat, base + intervalNanos)) {
+                return true
+            }
+        }
+    }
+
+    /**
+     * 距离上次报告超过[REPORT_INTERVAL_NANOS]时，返回并清空被忽略的日志条数，否则返回 0。
+     */
+    fun pollSuppressed(nowNanos: Long): Long {
+        if (suppressed.get() == 0L) return 0L
+        val last = lastReportTime.get()
+        if (last != Long.MIN_VALUE && nowNanos - last < REPORT_INTERVAL_NANOS) return 0L
+        if (!lastReportTime.compareAndSet(last, nowNanos)) return 0L
+        return suppressed.getAndSet(0L)
+    }
+
+    /**
+     * 返回并清空被忽略的日志条数
+     */
+    fun drainSuppressed(): Long = suppressed.getAndSet(0L)
+
+}
@@ -1,21 +1,24 @@
 package com.like.common.util
 
+import android.content.Context
 import android.database.Cursor
 import android.util.Log
-import org.json.JSONArray
-import org.json.JSONException
-import org.json.JSONObject
-import java.io.StringReader
-import java.io.StringWriter
-import javax.xml.transform.OutputKeys
-import javax.xml.transform.TransformerException
-import javax.xml.transform.TransformerFactory
-import javax.xml.transform.stream.StreamResult
-import javax.xml.transform.stream.StreamSource
+import com.like.common.util.storage.internal.InternalStorageUtils
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
 
 object Logger {
     private const val MAX_LOG_LINE_COUNT = 4000// 每行日志的最大长度限制，因为logcat在实现上每个message有4k字符长度限制
-    private const val TAG = "Logger"
+    internal const val TAG = "Logger"
+    private const val LOG_DIR = "logger"
+    private val LOGGER_CLASS_NAME = Logger::class.java.name
+    private val tagCache = ConcurrentHashMap<String, String>()// 类名对应的 tag 缓存
+
+    @Volatile
+    private var defaultTag: String? = null
+
+    @Volatile
+    private var callerTagEnabled = true
 
     /**
      * 开启打印日志。
@@ -33,6 +36,151 @@ object Logger {
 
     fun isOpen(): Boolean = LogPrinter.isOpen
 
+    /**
+     * 设置打印日志的最低级别，低于此级别的日志在格式化之前就会被丢弃。
+     *
+     * @param level 默认[Log.VERBOSE]，即全部打印。
+     */
+    fun setMinLevel(level: Int = Log.VERBOSE) {
+        LogPrinter.minLevel = level
+    }
+
+    /**
+     * 指定级别的日志是否会被打印。
+     */
+    fun isLoggable(level: Int): Boolean = LogPrinter.isOpen && level >= LogPrinter.minLevel
+
+    /**
+     * 开启异步打印日志。
+     * 调用线程只把日志放入预分配的无锁环形缓冲区，由一个后台线程负责取出并打印到 logcat，避免在主线程中阻塞。
+     *
+     * @param capacity  环形缓冲区的容量，会向上取整为 2 的次方，最大为 2^30。
+     * @param policy    缓冲区满时的处理策略，默认[OverflowPolicy.DROP_OLDEST]。
+     */
+    @Synchronized
+    fun openAsync(capacity: Int = 1024, policy: OverflowPolicy = OverflowPolicy.DROP_OLDEST) {
+        LogPrinter.asyncWriter?.shutdown()
+        LogPrinter.asyncWriter = AsyncLogWriter(capacity, policy) {
+            val data = it.data
+            if (data != null) {
+                LogPrinter.writeEvent(it.tag, data, it.level, it.timeMillis)
+            } else {
+                LogPrinter.write(it.tag, it.message, it.level, it.timeMillis)
+            }
+        }
+    }
+
+    /**
+     * 关闭异步打印日志，恢复为在调用线程中同步打印。缓冲区中剩余的日志会在后台线程中继续打印完。
+     */
+    @Synchronized
+    fun closeAsync() {
+        LogPrinter.asyncWriter?.shutdown()
+        LogPrinter.asyncWriter = null
+    }
+
+    fun isAsync(): Boolean = LogPrinter.asyncWriter != null
+
+    /**
+     * 开启日志文件输出。
+     * 日志除了打印到 logcat，还会写入内部存储 files/logger 目录下的内存映射文件中，按大小和数量滚动。
+     * 进程崩溃或者被杀死后，下次启动时可以通过[getLogFiles]、[readLogFile]读取到之前的日志。
+     *
+     * @param maxSegmentSize    每个日志文件的大小（字节），默认 1MB。
+     * @param maxSegmentCount   最多保留的日志文件数量，默认 10。
+     */
+    @Synchronized
+    fun openFileSink(context: Context, maxSegmentSize: Int = 1024 * 1024, maxSegmentCount: Int = 10) {
+        LogPrinter.fileSink?.close()
+        LogPrinter.fileSink = LogFileSink(getLogDir(context), maxSegmentSize, maxSegmentCount)
+    }
+
+    /**
+     * 关闭日志文件输出。
+     */
+    @Synchronized
+    fun closeFileSink() {
+        LogPrinter.fileSink?.close()
+        LogPrinter.fileSink = null
+    }
+
+    /**
+     * 把日志文件强制同步到磁盘。正常情况下不需要调用，进程被杀死后系统也会把已写入的日志写回磁盘，只有设备断电才会丢失。
+     */
+    fun flushFileSink() {
+        LogPrinter.fileSink?.flush()
+    }
+
+    /**
+     * 获取所有日志文件，按时间从早到晚排序。
+     */
+    fun getLogFiles(context: Context): List<File> = LogFileSink.listSegments(getLogDir(context))
+
+    /**
+     * 读取日志文件中的所有日志
+     */
+    fun readLogFile(file: File, action: (level: Int, tag: String, message: String, timeMillis: Long) -> Unit) {
+        try {
+            LogFileSink.forEachRecord(file) { type, level, timeMillis, tag, body ->
+                val message = if (type == LogFileSink.RECORD_TYPE_EVENT) {
+                    LogEventCodec.render(body)
+                } else {
+                    String(body, Charsets.UTF_8)
+                }
+                action(level, tag, message, timeMillis)
+            }
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+    }
+
+    /**
+     * 对指定 tag 的日志限流，适用于滑动回调等频繁调用的地方。
+     * 被忽略的日志条数会在该 tag 的日志下次被打印时报告，最多每秒报告一次。
+     *
+     * @param permitsPerSecond  每秒最多打印的条数，<=0 表示取消限流
+     * @param burst             允许短时间内突发打印的条数
+     */
+    @Synchronized
+    fun setRateLimit(tag: String, permitsPerSecond: Double, burst: Int = 1) {
+        val old = LogPrinter.throttles[tag]
+        updateThrottle(tag, permitsPerSecond, burst, old?.sampleRate ?: 0)
+    }
+
+    /**
+     * 对指定 tag 的日志采样，每[sampleRate]条只打印 1 条。
+     *
+     * @param sampleRate    <=1 表示取消采样
+     */
+    @Synchronized
+    fun setSampling(tag: String, sampleRate: Int) {
+        val old = LogPrinter.throttles[tag]
+        updateThrottle(tag, old?.permitsPerSecond ?: 0.0, old?.burst ?: 1, sampleRate)
+    }
+
+    /**
+     * 取消指定 tag 的限流和采样
+     */
+    @Synchronized
+    fun clearThrottle(tag: String) {
+        LogPrinter.throttles.remove(tag)
+    }
+
+    /**
+     * 返回并清空指定 tag 因为限流或者采样而被忽略的日志条数
+     */
+    fun drainSuppressedCount(tag: String): Long = LogPrinter.throttles[tag]?.drainSuppressed() ?: 0L
+
+    private fun updateThrottle(tag: String, permitsPerSecond: Double, burst: Int, sampleRate: Int) {
+        if (permitsPerSecond <= 0 && sampleRate <= 1) {
+            LogPrinter.throttles.remove(tag)
+        } else {
+            LogPrinter.throttles[tag] = LogThrottle(permitsPerSecond, burst, sampleRate)
+        }
+    }
+
+    private fun getLogDir(context: Context): File = File(InternalStorageUtils.getFilesDir(context), LOG_DIR)
+
     /**
      * 设置每行打印的字符数，用于分批打印，因为logcat在实现上每个message有4k字符长度限制
 
@@ -43,6 +191,7 @@ object Logger {
     }
 
     fun printXml(xml: String?, level: Int = Log.DEBUG) {
+        if (!isLoggable(level)) return
         printXml(getClassName(), xml, level)
     }
 
@@ -51,6 +200,7 @@ object Logger {
     }
 
     fun printJson(json: String?, level: Int = Log.DEBUG) {
+        if (!isLoggable(level)) return
         printJson(getClassName(), json, level)
     }
 
@@ -58,15 +208,23 @@ object Logger {
         LogPrinter.printJson(tag, json, level)
     }
 
-    fun printCursor(cursor: Cursor?, level: Int = Log.DEBUG) {
-        printCursor(getClassName(), cursor, level)
+    fun printCursor(cursor: Cursor?, level: Int = Log.DEBUG, maxRows: Int = Int.MAX_VALUE, maxColumns: Int = Int.MAX_VALUE) {
+        if (!isLoggable(level)) return
+        printCursor(getClassName(), cursor, level, maxRows, maxColumns)
     }
 
-    fun printCursor(tag: String, cursor: Cursor?, level: Int = Log.DEBUG) {
-        LogPrinter.printCursor(tag, cursor, level)
+    /**
+     * 以表格形式打印 cursor 中的数据，从第一行开始打印，打印完成后会恢复 cursor 原来的位置。
+     *
+     * @param maxRows       最多打印的行数
+     * @param maxColumns    最多打印的列数
+     */
+    fun printCursor(tag: String, cursor: Cursor?, level: Int = Log.DEBUG, maxRows: Int = Int.MAX_VALUE, maxColumns: Int = Int.MAX_VALUE) {
+        LogPrinter.printCursor(tag, cursor, level, maxRows, maxColumns)
     }
 
     fun <T> printCollection(collection: Collection<T>?, level: Int = Log.DEBUG) {
+        if (!isLoggable(level)) return
         printCollection(getClassName(), collection, level)
     }
 
@@ -75,6 +233,7 @@ object Logger {
     }
 
     fun <T, V> printMap(map: Map<T, V>?, level: Int = Log.DEBUG) {
+        if (!isLoggable(level)) return
         printMap(getClassName(), map, level)
     }
 
@@ -83,6 +242,7 @@ object Logger {
     }
 
     fun v(obj: Any?) {
+        if (!isLoggable(Log.VERBOSE)) return
         v(getClassName(), obj)
     }
 
@@ -90,7 +250,19 @@ object Logger {
         LogPrinter.printBitch(tag, obj, Log.VERBOSE)
     }
 
+    /**
+     * 只有在日志会被打印时才调用[message]生成日志内容。
+     */
+    inline fun v(message: () -> Any?) {
+        if (isLoggable(Log.VERBOSE)) v(message())
+    }
+
+    inline fun v(tag: String, message: () -> Any?) {
+        if (isLoggable(Log.VERBOSE)) v(tag, message())
+    }
+
     fun d(obj: Any?) {
+        if (!isLoggable(Log.DEBUG)) return
         d(getClassName(), obj)
     }
 
@@ -98,7 +270,19 @@ object Logger {
         LogPrinter.printBitch(tag, obj, Log.DEBUG)
     }
 
+    /**
+     * 只有在日志会被打印时才调用[message]生成日志内容。
+     */
+    inline fun d(message: () -> Any?) {
+        if (isLoggable(Log.DEBUG)) d(message())
+    }
+
+    inline fun d(tag: String, message: () -> Any?) {
+        if (isLoggable(Log.DEBUG)) d(tag, message())
+    }
+
     fun i(obj: Any?) {
+        if (!isLoggable(Log.INFO)) return
         i(getClassName(), obj)
     }
 
@@ -106,7 +290,19 @@ object Logger {
         LogPrinter.printBitch(tag, obj, Log.INFO)
     }
 
+    /**
+     * 只有在日志会被打印时才调用[message]生成日志内容。
+     */
+    inline fun i(message: () -> Any?) {
+        if (isLoggable(Log.INFO)) i(message())
+    }
+
+    inline fun i(tag: String, message: () -> Any?) {
+        if (isLoggable(Log.INFO)) i(tag, message())
+    }
+
     fun w(obj: Any?) {
+        if (!isLoggable(Log.WARN)) return
         w(getClassName(), obj)
     }
 
@@ -114,7 +310,19 @@ object Logger {
         LogPrinter.printBitch(tag, obj, Log.WARN)
     }
 
+    /**
+     * 只有在日志会被打印时才调用[message]生成日志内容。
+     */
+    inline fun w(message: () -> Any?) {
+        if (isLoggable(Log.WARN)) w(message())
+    }
+
+    inline fun w(tag: String, message: () -> Any?) {
+        if (isLoggable(Log.WARN)) w(tag, message())
+    }
+
     fun e(obj: Any?) {
+        if (!isLoggable(Log.ERROR)) return
         e(getClassName(), obj)
     }
 
@@ -122,7 +330,19 @@ object Logger {
         LogPrinter.printBitch(tag, obj, Log.ERROR)
     }
 
+    /**
+     * 只有在日志会被打印时才调用[message]生成日志内容。
+     */
+    inline fun e(message: () -> Any?) {
+        if (isLoggable(Log.ERROR)) e(message())
+    }
+
+    inline fun e(tag: String, message: () -> Any?) {
+        if (isLoggable(Log.ERROR)) e(tag, message())
+    }
+
     fun wtf(obj: Any?) {
+        if (!isLoggable(Log.ASSERT)) return
         wtf(getClassName(), obj)
     }
 
@@ -131,21 +351,115 @@ object Logger {
     }
 
     /**
-     * 获取调用Logger工具类的类的名字，如果没有，就返回"Logger"
+     * 只有在日志会被打印时才调用[message]生成日志内容。
+     */
+    inline fun wtf(message: () -> Any?) {
+        if (isLoggable(Log.ASSERT)) wtf(message())
+    }
+
+    inline fun wtf(tag: String, message: () -> Any?) {
+        if (isLoggable(Log.ASSERT)) wtf(tag, message())
+    }
+
+    /**
+     * 设置默认的 tag。
+     * 设置后，不传 tag 的打印方法都使用此 tag，即使开启了[setCallerTag]也不再查找调用栈。
+     *
+     * @param tag   为 null 时恢复为使用"Logger"或者调用者的类名（见[setCallerTag]）作为 tag
+     */
+    fun setDefaultTag(tag: String?) {
+        defaultTag = tag
+    }
+
+    /**
+     * 设置没有默认 tag 时，不传 tag 的打印方法是否通过调用栈查找调用者的类名作为 tag。
+     * 每次打印都需要获取一次调用栈，对性能敏感的地方建议使用[tagOf]和带 tag 的打印方法。关闭时使用"Logger"作为 tag。
+     *
+     * @param enabled   默认 true
+     */
+    fun setCallerTag(enabled: Boolean) {
+        callerTagEnabled = enabled
+    }
+
+    /**
+     * 获取指定类对应的 tag，即类的简单名字。结果会被缓存。
+     * 在调用方把 tag 保存为常量，再调用带 tag 的打印方法，可以完全避免查找调用栈。
+     *
+     * 示例：private val TAG = Logger.tagOf(javaClass)
+     */
+    fun tagOf(clazz: Class<*>): String = tagOf(clazz.name)
+
+    private fun tagOf(className: String): String =
+        tagCache[className] ?: className.substring(className.lastIndexOf(".") + 1).also {
+            tagCache.putIfAbsent(className, it)
+        }
+
+    /**
+     * 创建结构化日志，通过 kv() 添加字段，最后调用 log() 打印。
+     * 不会被打印时返回一个不做任何事情的实例，添加字段的开销只有一次判断。
+     *
+     * 示例：Logger.event("upload").kv("bytes", n).kv("ms", t).log()
+     *
+     * @param name  事件名称
+     */
+    fun event(name: String, level: Int = Log.INFO): LogEvent {
+        if (!isLoggable(level)) return LogEvent.DISABLED
+        return LogEvent.obtain(name, getClassName(), level)
+    }
+
+    fun event(tag: String, name: String, level: Int = Log.INFO): LogEvent {
+        if (!isLoggable(level)) return LogEvent.DISABLED
+        return LogEvent.obtain(name, tag, level)
+    }
+
+    internal fun printEvent(tag: String, level: Int, data: ByteArray) {
+        LogPrinter.printEvent(tag, data, level)
+    }
+
+    /**
+     * 获取不传 tag 时使用的 tag：优先使用[setDefaultTag]设置的 tag；
+     * 开启了[setCallerTag]时查找调用Logger工具类的类的名字；否则返回"Logger"。
+     *
+     * 使用 Throwable().stackTrace 代替 Thread.currentThread().stackTrace，在 ART 上少了 VMStack 的额外调用和栈帧。
+     * 类名到 tag 的转换会被缓存，避免每次都截取字符串。
      */
     private fun getClassName(): String {
-        val stackTraces = Thread.currentThread().stackTrace
-        for ((i, stackTrace) in stackTraces.withIndex()) {
-            if (stackTrace.className.endsWith(TAG) && i + 1 < stackTraces.size) {
-                val className = stackTraces[i + 1].className
-                val startIndex = className.lastIndexOf(".")
-                val endIndex = className.length
-                return className.substring(startIndex + 1, endIndex)
+        defaultTag?.let { return it }
+        if (!callerTagEnabled) return TAG
+        val stackTraces = Throwable().stackTrace
+        var foundLogger = false
+        for (stackTrace in stackTraces) {
+            val className = stackTrace.className
+            // 精确匹配，避免跳过类名以"Logger"开头的调用者，比如 LoggerTest
+            if (className == LOGGER_CLASS_NAME) {
+                foundLogger = true
+            } else if (foundLogger) {
+                return tagOf(className)
             }
         }
         return TAG
     }
 
+    /**
+     * 异步打印日志时，环形缓冲区满了的处理策略
+     */
+    enum class OverflowPolicy {
+        /**
+         * 丢弃最早的日志，保证最新的日志能被打印
+         */
+        DROP_OLDEST,
+
+        /**
+         * 丢弃最新的日志
+         */
+        DROP_NEWEST,
+
+        /**
+         * 阻塞调用线程，直到缓冲区有空位
+         */
+        BLOCK
+    }
+
     private object LogPrinter {
         /**
          * 设置每行打印的字符数，用于分批打印，因为logcat在实现上每个message有4k字符长度限制
@@ -153,78 +467,118 @@ object Logger {
          */
         var logLineCount: Int = 0// 每行打印的字符数，用于分批打印，因为logcat在实现上每个message有4k字符长度限制
         var isOpen = true// 是否打印日志。true：打印日志；false：不打印日志。
+        var minLevel = Log.VERBOSE// 打印日志的最低级别
+
+        @Volatile
+        var asyncWriter: AsyncLogWriter? = null// 不为 null 时表示异步打印日志
+
+        @Volatile
+        var fileSink: LogFileSink? = null// 不为 null 时表示同时把日志写入文件
+        val throttles = ConcurrentHashMap<String, LogThrottle>()// tag 对应的限流和采样策略
+
+        private const val BITCH_PREFIX = "Logger bitch "
+        private const val CURSOR_COLUMN_SEPARATOR = " | "
+        private val bitchBuilder = object : ThreadLocal<StringBuilder>() {
+            override fun initialValue(): StringBuilder = StringBuilder()
+        }
 
         fun printXml(tag: String, xml: String?, level: Int) {
-            if (!isOpen) return
+            if (!isAllowed(tag, level)) return
             if (xml.isNullOrEmpty()) {
                 printBitch(tag, "Empty/Null xml content", Log.ERROR)
                 return
             }
-
-            try {
-                val xmlInput = StreamSource(StringReader(xml))
-                val xmlOutput = StreamResult(StringWriter())
-                val transformer = TransformerFactory.newInstance().newTransformer()
-                transformer.setOutputProperty(OutputKeys.INDENT, "yes")
-                transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2")
-                transformer.transform(xmlInput, xmlOutput)
-                printBitch(tag, xmlOutput.writer.toString().replaceFirst(">".toRegex(), ">\n"), level)
-            } catch (e: TransformerException) {
+            val writer = newChunkWriter(tag, level)
+            val valid = XmlIndenter.indent(xml, writer)
+            writer.finish()
+            if (!valid) {
                 printBitch(tag, "Invalid xml", Log.ERROR)
             }
-
         }
 
         fun printJson(tag: String, json: String?, level: Int) {
-            if (!isOpen) return
+            if (!isAllowed(tag, level)) return
             if (json.isNullOrEmpty()) {
                 printBitch(tag, "Empty/Null json content", Log.ERROR)
                 return
             }
-            try {
-                val jsonTrim = json.trim()
-                if (jsonTrim.startsWith("{")) {
-                    val jsonObject = JSONObject(jsonTrim)
-                    val message = jsonObject.toString(2)
-                    printBitch(tag, message, level)
-                    return
-                }
-                if (jsonTrim.startsWith("[")) {
-                    val jsonArray = JSONArray(jsonTrim)
-                    val message = jsonArray.toString(2)
-                    printBitch(tag, message, level)
-                    return
-                }
-            } catch (e: JSONException) {
+            val writer = newChunkWriter(tag, level)
+            val valid = JsonIndenter.indent(json, writer)
+            writer.finish()
+            if (!valid) {
+                printBitch(tag, "Invalid Json", Log.ERROR)
             }
-            printBitch(tag, "Invalid Json", Log.ERROR)
         }
 
-        fun printCursor(tag: String, cursor: Cursor?, level: Int) {
-            if (!isOpen) return
+        /**
+         * 创建按 logcat 长度限制分批输出的[LogChunkWriter]，格式化时直接写入其中，不需要先生成完整的字符串。
+         */
+        private fun newChunkWriter(tag: String, level: Int): LogChunkWriter =
+            LogChunkWriter(if (logLineCount > 0) logLineCount else MAX_LOG_LINE_COUNT) {
+                dispatch(tag, it, level)
+            }
+
+        fun printCursor(tag: String, cursor: Cursor?, level: Int, maxRows: Int, maxColumns: Int) {
+            if (!isAllowed(tag, level)) return
             if (cursor == null) {
                 printBitch(tag, "cursor为null", Log.ERROR)
                 return
             }
-            if (cursor.count <= 0) {
+            val count = cursor.count
+            if (count <= 0) {
                 printBitch(tag, "cursor count为0", Log.ERROR)
                 return
             }
-            val columnCount = cursor.columnCount
+            // 所有行都写入同一个 LogChunkWriter，按 logcat 的长度限制分批打印，而不是每个单元格打印一次。
+            val writer = newChunkWriter(tag, level)
+            val columnCount = cursor.columnCount.coerceAtMost(maxColumns)
             for (i in 0 until columnCount) {
-                printBitch(tag, cursor.getColumnName(i), level)
+                if (i > 0) writer.append(CURSOR_COLUMN_SEPARATOR)
+                writer.append(cursor.getColumnName(i))
             }
-            printBitch(tag, "\n", level)
-            while (cursor.moveToNext()) {
-                for (i in 0 until columnCount) {
-                    printBitch(tag, cursor.getString(i), level)
+            if (columnCount < cursor.columnCount) {
+                writer.append(CURSOR_COLUMN_SEPARATOR)
+                writer.append("...")
+            }
+            val position = cursor.position
+            var rows = 0
+            try {
+                // 先判断行数限制，maxRows <= 0 时不打印任何行
+                if (maxRows > 0 && cursor.moveToFirst()) {
+                    do {
+                        writer.newLine()
+                        for (i in 0 until columnCount) {
+                            if (i > 0) writer.append(CURSOR_COLUMN_SEPARATOR)
+                            appendCursorCell(writer, cursor, i)
+                        }
+                        rows++
+                    } while (rows < maxRows && cursor.moveToNext())
+                }
+                if (rows < count) {
+                    writer.newLine()
+                    writer.append("... 共 $count 行，只打印了前 $rows 行")
                 }
-                printBitch(tag, "\n", level)
+            } finally {
+                cursor.moveToPosition(position)
+                writer.finish()
+            }
+        }
+
+        /**
+         * 根据列的类型读取，避免每个单元格都通过 getString 转换
+         */
+        private fun appendCursorCell(writer: LogChunkWriter, cursor: Cursor, columnIndex: Int) {
+            when (cursor.getType(columnIndex)) {
+                Cursor.FIELD_TYPE_NULL -> writer.append("null")
+                Cursor.FIELD_TYPE_INTEGER -> writer.append(cursor.getLong(columnIndex).toString())
+                Cursor.FIELD_TYPE_FLOAT -> writer.append(cursor.getDouble(columnIndex).toString())
+                Cursor.FIELD_TYPE_BLOB -> writer.append("<blob>")
+                else -> writer.append(cursor.getString(columnIndex) ?: "null")
             }
         }
 
         fun <T> printCollection(tag: String, collection: Collection<T>?, level: Int) {
-            if (!isOpen) return
+            if (!isLoggable(level)) return
             if (collection == null) {
                 printBitch(tag, "collection为null", Log.ERROR)
                 return
@@ -233,11 +587,13 @@ object Logger {
                 printBitch(tag, "collection size为0", Log.ERROR)
                 return
             }
-            collection.forEach { printBitch(tag, it.toString(), level) }
+            // 整个集合算作一条日志，只消耗一次限流配额，否则集合后面的元素会被限流丢弃
+            if (!isAllowed(tag, level)) return
+            collection.forEach { dispatch(tag, it.toString(), level) }
         }
 
         fun <T, V> printMap(tag: String, map: Map<T, V>?, level: Int) {
-            if (!isOpen) return
+            if (!isLoggable(level)) return
             if (map == null) {
                 printBitch(tag, "map为null", Log.ERROR)
                 return
@@ -246,31 +602,108 @@ object Logger {
                 printBitch(tag, "map size为0", Log.ERROR)
                 return
             }
+            if (!isAllowed(tag, level)) return
             for ((key, value) in map) {
-                printBitch(tag, key.toString() + " : " + value, level)
+                dispatch(tag, key.toString() + " : " + value, level)
             }
         }
 
         /**
          * 分批打印日志，避免日志打印不完全。因为logcat对每条日志长度有限制。
+         * 只有长度超过[logLineCount]时才会分批，并在每批前加上"Logger bitch 序号："前缀。
 
          * @param tag
          * @param obj
          * @param level
          */
         fun printBitch(tag: String, obj: Any?, level: Int) {
-            if (!isOpen) return
-            val text: String = obj?.toString() ?: "null"
-            if (logLineCount <= 0) {
+            if (!isAllowed(tag, level)) return
+            dispatch(tag, obj?.toString() ?: "null", level)
+        }
+
+        /**
+         * 是否打印日志：先判断级别，再判断 tag 的限流和采样策略。
+         */
+        private fun isAllowed(tag: String, level: Int): Boolean {
+            if (!isLoggable(level)) return false
+            if (throttles.isEmpty()) return true
+            val throttle = throttles[tag] ?: return true
+            val now = System.nanoTime()
+            if (!throttle.tryAcquire(now)) return false
+            val suppressed = throttle.pollSuppressed(now)
+            if (suppressed > 0L) {
+                dispatch(tag, "限流或者采样忽略了 $suppressed 条日志", level)
+            }
+            return true
+        }
+
+        /**
+         * 同步模式下直接写入，异步模式下放入缓冲区
+         */
+        private fun dispatch(tag: String, text: String, level: Int) {
+            val writer = asyncWriter
+            if (writer == null || writer.isDrainThread() || !writer.offer(level, tag, text)) {
+                write(tag, text, level, System.currentTimeMillis())
+            }
+        }
+
+        /**
+         * 打印结构化日志，[data]为编码后的二进制数据
+         */
+        fun printEvent(tag: String, data: ByteArray, level: Int) {
+            if (!isAllowed(tag, level)) return
+            val writer = asyncWriter
+            if (writer == null || writer.isDrainThread() || !writer.offer(level, tag, "", data)) {
+                writeEvent(tag, data, level, System.currentTimeMillis())
+            }
+        }
+
+        /**
+         * 把日志写入 logcat 和日志文件。异步模式下在后台线程中调用。
+         */
+        fun write(tag: String, text: String, level: Int, timeMillis: Long) {
+            fileSink?.appendText(level, tag, text, timeMillis)
+            writeLogcat(tag, text, level)
+        }
+
+        /**
+         * 把结构化日志以二进制写入日志文件，转换为文本后写入 logcat。异步模式下在后台线程中调用。
+         */
+        fun writeEvent(tag: String, data: ByteArray, level: Int, timeMillis: Long) {
+            fileSink?.append(LogFileSink.RECORD_TYPE_EVENT, level, tag, data, timeMillis)
+            writeLogcat(tag, LogEventCodec.render(data), level)
+        }
+
+        private fun writeLogcat(tag: String, text: String, level: Int) {
+            val lineCount = logLineCount
+            if (lineCount <= 0 || text.length <= lineCount) {
                 print(tag, text, level)
-            } else {
-                val bitchCount = text.length / logLineCount + 1
-                for (i in 0 until bitchCount) {
-                    val start = i * logLineCount
-                    val next = (i + 1) * logLineCount
-                    val end = if (next > text.length) text.length else next
-                    print(tag, "Logger bitch " + i + "：" + text.substring(start, end), level)
+                return
+            }
+            // 每批只在复用的 StringBuilder 中拼接一次前缀和内容，不再额外创建 substring 和拼接的中间字符串。
+            val sb = bitchBuilder.get()!!
+            var start = 0
+            var i = 0
+            while (start < text.length) {
+                var end = if (text.length - start > lineCount) start + lineCount else text.length
+                var next = end
+                if (end < text.length) {
+                    val newLine = text.lastIndexOf('\n', end - 1)
+                    if (newLine >= start + lineCount / 2) {
+                        // 优先在换行处分批，换行符本身不打印
+                        end = newLine
+                        next = newLine + 1
+                    } else if (Character.isHighSurrogate(text[end - 1])) {
+                        // 不拆开 UTF-16 代理对。这一批只有这一个字符时把整个代理对放在这一批，否则不会前进
+                        if (end - 1 > start) end-- else end++
+                        next = end
+                    }
                 }
+                sb.setLength(0)
+                sb.append(BITCH_PREFIX).append(i).append('：').append(text, start, end)
+                print(tag, sb.toString(), level)
+                start = next
+                i++
             }
         }
 
@@ -0,0 +1,383 @@
+package com.like.common.util
+
+import android.content.Context
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import kotlin.properties.ReadWriteProperty
+import kotlin.reflect.KProperty
+
+/**
+ * 基于内存映射文件（mmap）的键值对存储工具类，用法和[SPUtils]一样。
+ *
+ * SharedPreferences 每次 apply() 都会把整个 xml 文件重写一遍，DataStore 每次 edit 也会重写整个文件，数据越多越慢。
+ * 这里每次修改只在文件末尾追加一条记录，写入的是[MappedByteBuffer]，数据直接进入系统的页缓存，不需要额外的磁盘 IO，
+ * 即使进程被杀死，已经写入的数据也会由系统写回磁盘。
+ * 同一个 key 的旧记录会一直留在文件中，文件写满时进行一次压缩（只保留每个 key 的最新值），压缩后空间仍然不足时扩大文件。
+ * 所有数据在初始化时读取到内存中，之后的 get 只需要一次 Map 查找。
+ *
+ * 文件格式（大端序）：
+ * 头部[HEADER_SIZE]字节：magic(int) version(short) 保留(short) dataEnd(int)
+ * 记录：keyLength(short) key(UTF-8) type(byte) value
+ * 其中 value 的格式由 type 决定，[TYPE_REMOVED]表示这个 key 已经被移除，没有 value。
+ * 记录写完后才更新头部的 dataEnd，所以写到一半时进程被杀死，下次启动只会丢弃这一条不完整的记录。
+ *
+ * 支持基本数据类型：String、Boolean、Int、Long、Float、Double
+ */
+class MmapKVUtils private constructor() {
+    private lateinit var file: File
+    private var buffer: MappedByteBuffer? = null
+    private val values = HashMap<String, Any>()
+
+    companion object {
+        private const val NOT_INIT_EXCEPTION = "you must init MmapKVUtils by init() first"
+        private const val KEY_IS_EMPTY_EXCEPTION = "key is empty"
+        private const val MMAP_KV_DIR = "mmapkv"
+        private const val MMAP_KV_FILE_SUFFIX = ".kv"
+        private const val MAGIC = 0x4D4B5653// "MKVS"
+        private const val VERSION: Short = 1
+        private const val HEADER_SIZE = 16
+        private const val OFFSET_DATA_END = 8
+        private const val MIN_FILE_SIZE = 4 * 1024
+
+        private const val TYPE_REMOVED: Byte = 0
+        private const val TYPE_STRING: Byte = 1
+        private const val TYPE_BOOLEAN: Byte = 2
+        private const val TYPE_INT: Byte = 3
+        private const val TYPE_LONG: Byte = 4
+        private const val TYPE_FLOAT: Byte = 5
+        private const val TYPE_DOUBLE: Byte = 6
+
+        @JvmStatic
+        fun getInstance(): MmapKVUtils {
+            return Holder.instance
+        }
+    }
+
+    private object Holder {
+        val instance = MmapKVUtils()
+    }
+
+    /**
+     * @param fileName 存储的文件名字。默认为包名。
+     */
+    @JvmOverloads
+    @Synchronized
+    fun init(context: Context, fileName: String = context.packageName) {
+        if (!::file.isInitialized) {
+            val dir = File(context.applicationContext.filesDir, MMAP_KV_DIR)
+            if (!dir.exists()) {
+                dir.mkdirs()
+            }
+            file = File(dir, "$fileName$MMAP_KV_FILE_SUFFIX")
+            load()
+        }
+    }
+
+    /**
+     * 读取文件中的所有记录，后面的记录覆盖前面的记录。文件不存在或者已损坏时新建一个空文件。
+     */
+    private fun load() {
+        try {
+            if (file.exists() && file.length() >= HEADER_SIZE) {
+                val mapped = map(file, file.length().toInt())
+                val dataEnd = mapped.getInt(OFFSET_DATA_END)
+                if (mapped.getInt(0) == MAGIC && dataEnd in HEADER_SIZE..mapped.capacity()) {
+                    mapped.position(HEADER_SIZE)
+                    mapped.limit(dataEnd)
+                    var recordStart = HEADER_SIZE
+                    try {
+                        while (mapped.hasRemaining()) {
+                            recordStart = mapped.position()
+                            readRecord(mapped)
+                        }
+                    } catch (e: Exception) {
+                        // 记录已损坏，丢弃这条记录及之后的数据
+                        mapped.putInt(OFFSET_DATA_END, recordStart)
+                    }
+                    mapped.limit(mapped.capacity())
+                    mapped.position(mapped.getInt(OFFSET_DATA_END))
+                    buffer = mapped
+                    return
+                }
+            }
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+        values.clear()
+        buffer = rewrite(MIN_FILE_SIZE)
+    }
+
+    private fun readRecord(mapped: ByteBuffer) {
+        val key = readBytes(mapped, mapped.short.toInt()).toString(Charsets.UTF_8)
+        val value: Any? = when (mapped.get()) {
+            TYPE_REMOVED -> null
+            TYPE_STRING -> readBytes(mapped, mapped.int).toString(Charsets.UTF_8)
+            TYPE_BOOLEAN -> mapped.get() != 0.toByte()
+            TYPE_INT -> mapped.int
+            TYPE_LONG -> mapped.long
+            TYPE_FLOAT -> mapped.float
+            TYPE_DOUBLE -> mapped.double
+            else -> throw IllegalStateException("unknown type")
+        }
+        if (value == null) values.remove(key) else values[key] = value
+    }
+
+    private fun readBytes(mapped: ByteBuffer, length: Int): ByteArray {
+        check(length in 0..mapped.remaining()) { "invalid length" }
+        return ByteArray(length).also { mapped.get(it) }
+    }
+
+    /**
+     * 如果[key]存在，则返回对应类型的数据，如果转换数据类型失败，则返回[default]。
+     * 如果[key]不存在，则返回[default]；
+     */
+    @Suppress("UNCHECKED_CAST")
+    @Synchronized
+    @Throws(IllegalArgumentException::class)
+    fun <T> get(key: String, default: T): T {
+        require(::file.isInitialized) { NOT_INIT_EXCEPTION }
+        require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
+        val value = values[key] ?: return default
+        return try {
+            value as T
+        } catch (e: Exception) {
+            default
+        }
+    }
+
+    /**
+     * 如果[key]已经存在，则会覆盖数据
+     * @param value     如果为 null，则会移除对应的数据。
+     */
+    @Synchronized
+    @Throws(IllegalArgumentException::class)
+    fun put(key: String, value: Any?) {
+        require(::file.isInitialized) { NOT_INIT_EXCEPTION }
+        require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
+        if (value == null) {
+            remove(key)
+            return
+        }
+        if (value == values[key]) return
+        try {
+            val record = encodeRecord(key, value) ?: return
+            // 写入文件成功后才修改内存中的数据，否则内存中的数据在重启后会消失
+            append(key, value, record)
+            values[key] = value
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+    }
+
+    /**
+     * 移除某个key对应的那一条数据
+     * @param key
+     */
+    @Synchronized
+    @Throws(IllegalArgumentException::class)
+    fun remove(key: String) {
+        require(::file.isInitialized) { NOT_INIT_EXCEPTION }
+        require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
+        if (!values.containsKey(key)) return
+        try {
+            append(key, null, encodeRecord(key, null)!!)
+            values.remove(key)
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+    }
+
+    /**
+     * 清除所有数据
+     */
+    @Synchronized
+    @Throws(IllegalArgumentException::class)
+    fun clear() {
+        require(::file.isInitialized) { NOT_INIT_EXCEPTION }
+        try {
+            buffer = rewrite(MIN_FILE_SIZE)
+            values.clear()
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+    }
+
+    /**
+     * 查询某个key是否已经存在
+     * @param key
+     * @return
+     */
+    @Synchronized
+    @Throws(IllegalArgumentException::class)
+    fun contains(key: String): Boolean {
+        require(::file.isInitialized) { NOT_INIT_EXCEPTION }
+        require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
+        return values.containsKey(key)
+    }
+
+    /**
+     * 返回所有的键值对数据
+     * @return
+     */
+    @Synchronized
+    @Throws(IllegalArgumentException::class)
+    fun getAll(): Map<String, Any?>? {
+        require(::file.isInitialized) { NOT_INIT_EXCEPTION }
+        return HashMap<String, Any?>(values)
+    }
+
+    /**
+     * 把数据强制同步到磁盘。只在需要保证设备断电也不丢失时调用。
+     */
+    @Synchronized
+    fun flush() {
+        try {
+            buffer?.force()
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+    }
+
+    /**
+     * @param value 为 null 时生成移除记录
+     * @return 不支持的类型返回 null
+     */
+    private fun encodeRecord(key: String, value: Any?): ByteArray? {
+        val keyBytes = key.toByteArray(Charsets.UTF_8)
+        require(keyBytes.size <= Short.MAX_VALUE) { "key is too long" }
+        val out = ByteArrayOutputStream(keyBytes.size + 16)
+        DataOutputStream(out).use {
+            it.writeShort(keyBytes.size)
+            it.write(keyBytes)
+            when (value) {
+                null -> it.writeByte(TYPE_REMOVED.toInt())
+                is String -> {
+                    val bytes = value.toByteArray(Charsets.UTF_8)
+                    it.writeByte(TYPE_STRING.toInt())
+                    it.writeInt(bytes.size)
+                    it.write(bytes)
+                }
+                is Boolean -> {
+                    it.writeByte(TYPE_BOOLEAN.toInt())
+                    it.writeBoolean(value)
+                }
+                is Int -> {
+                    it.writeByte(TYPE_INT.toInt())
+                    it.writeInt(value)
+                }
+                is Long -> {
+                    it.writeByte(TYPE_LONG.toInt())
+                    it.writeLong(value)
+                }
+                is Float -> {
+                    it.writeByte(TYPE_FLOAT.toInt())
+                    it.writeFloat(value)
+                }
+                is Double -> {
+                    it.writeByte(TYPE_DOUBLE.toInt())
+                    it.writeDouble(value)
+                }
+                else -> return null
+            }
+        }
+        return out.toByteArray()
+    }
+
+    /**
+     * 记录写完后再更新头部的 dataEnd。失败时抛出异常，[values]还没有被修改。
+     *
+     * @param record    [key]和[value]编码后的记录
+     */
+    private fun append(key: String, value: Any?, record: ByteArray) {
+        val mapped = buffer
+        if (mapped == null || mapped.remaining() < record.size) {
+            // 压缩，压缩后的文件已经包含了这条记录
+            buffer = compact(key, value)
+            return
+        }
+        mapped.put(record)
+        mapped.putInt(OFFSET_DATA_END, mapped.position())
+    }
+
+    /**
+     * 只保留每个 key 的最新值，[key]使用还没有放入[values]的[value]，为 null 表示移除。
+     * 压缩后至少保留一半的空闲空间，避免频繁压缩。
+     */
+    private fun compact(key: String, value: Any?): MappedByteBuffer {
+        val records = values.mapNotNull { (k, v) -> if (k == key) null else encodeRecord(k, v) }.toMutableList()
+        if (value != null) {
+            encodeRecord(key, value)?.let { records.add(it) }
+        }
+        val dataSize = HEADER_SIZE + records.sumOf { it.size }
+        var fileSize = MIN_FILE_SIZE
+        while (fileSize < dataSize * 2) {
+            fileSize *= 2
+        }
+        return rewrite(fileSize, records)
+    }
+
+    /**
+     * 先写入临时文件，再重命名替换原文件，这样即使在压缩过程中进程被杀死，原文件也是完整的。
+     */
+    private fun rewrite(fileSize: Int, records: List<ByteArray> = emptyList()): MappedByteBuffer {
+        val tmp = File(file.parentFile, "${file.name}.tmp")
+        val mapped = map(tmp, fileSize)
+        mapped.putInt(0, MAGIC)
+        mapped.putShort(4, VERSION)
+        mapped.position(HEADER_SIZE)
+        records.forEach { mapped.put(it) }
+        mapped.putInt(OFFSET_DATA_END, mapped.position())
+        mapped.force()
+        if (!tmp.renameTo(file)) {
+            file.delete()
+            tmp.renameTo(file)
+        }
+        return mapped
+    }
+
+    private fun map(file: File, size: Int): MappedByteBuffer =
+        RandomAccessFile(file, "rw").use {
+            it.setLength(size.toLong())
+            // 映射建立后，关闭文件不会影响映射，重命名文件也不会影响映射
+            it.channel.map(FileChannel.MapMode.READ_WRITE, 0, size.toLong())
+        }
+
+}
+
+/**
+ * [MmapKVUtils]属性委托，和[SharedPreferencesDelegate]用法一样，只需要替换类名。
+ * 支持基本数据类型：String、Boolean、Int、Long、Float、Double
+ *
+ * 示例：var xxx by MmapKVDelegate()
+ *
+ * @property context                    用于初始化工具类，如果这里不传，则需要单独调用 MmapKVUtils.getInstance().init() 初始化
+ * @property fileName                   存储的文件名字
+ * @property key                        存储的key
+ * @property default                    获取失败时，返回的默认值
+ */
+class MmapKVDelegate<T>(
+    private val context: Context? = null,
+    private val fileName: String,
+    private val key: String,
+    private val default: T
+) : ReadWriteProperty<Any?, T> {
+    init {
+        context?.applicationContext?.let {
+            MmapKVUtils.getInstance().init(it, fileName)
+        }
+    }
+
+    override fun getValue(thisRef: Any?, property: KProperty<*>): T {
+        return MmapKVUtils.getInstance().get(key, default)
+    }
+
+    override fun setValue(thisRef: Any?, property: KProperty<*>, value: T) {
+        MmapKVUtils.getInstance().put(key, value)
+    }
+
+}
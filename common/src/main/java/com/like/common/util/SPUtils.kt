@@ -2,6 +2,14 @@ package com.like.common.util
 
 import android.content.Context
 import android.content.SharedPreferences
+import android.os.Handler
+import android.os.Looper
+import android.util.Base64
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.withContext
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.properties.ReadWriteProperty
 import kotlin.reflect.KProperty
 
@@ -13,14 +21,70 @@ import kotlin.reflect.KProperty
  * 加载的数据会一直留在内存中，浪费内存
  * apply() 方法虽然是异步的，可能会发生 ANR，在 8.0 之前和 8.0 之后实现各不相同
  * apply() 方法无法获取到操作成功或者失败的结果
+ *
+ * 支持的数据类型：String、Boolean、Int、Long、Float、Double、Set<String>、ByteArray、枚举。
+ * SharedPreferences 本身不支持的类型按以下方式存储：
+ * Double：按照 Double.toRawBits() 存储为 Long；ByteArray：存储为 Base64 字符串，只适合较小的数据；枚举：存储为 name。
+ * 所以读取这些类型时必须通过 getDouble()、getByteArray()、getEnum() 或者传入对应类型的 default，第一次读取时解码，之后直接从缓存中读取解码后的值。
+ *
+ * 只有 init 会读取磁盘（加载整个文件），之后 get 只读取内存中的快照。在主线程中请使用[initSuspend]。
+ * 开启[strictMode]后，在主线程中调用 init 会抛出异常。
+ * 需要知道写入结果时使用[putSuspend]；需要监听数据时使用[observe]。
  */
 class SPUtils private constructor() {
     private lateinit var prefs: SharedPreferences
+    private val notifier = KeyChangeNotifier()
+
+    /**
+     * 严格模式。开启后，在主线程中调用会读取磁盘的 init 方法会抛出[IllegalStateException]。建议只在 debug 时开启。
+     */
+    var strictMode = false
+
+    /**
+     * 内存中的数据快照，值始终是 SharedPreferences 中存储的类型（Double 为 Long，ByteArray、枚举为 String）。
+     * 初始化时从 SharedPreferences 复制一次，之后由 put、remove、clear 同步更新，所以 get 只需要一次 Map 查找，不用每次都通过 getAll() 复制整个 Map。
+     */
+    private val snapshot = ConcurrentHashMap<String, Any>()
+
+    /**
+     * Double、ByteArray、枚举解码后的值。只有快照中的值没有改变（同一个对象）并且类型一致时才有效，写入和重新加载时会移除。
+     */
+    private val decoded = ConcurrentHashMap<String, Decoded>()
+
+    private class Decoded(val raw: Any, val type: Class<*>, val value: Any)
+
+    /**
+     * 还没写入磁盘的延迟写入，value 为存储的类型，为 null 表示移除。见[putDeferred]
+     * 同时作为写入 SharedPreferences 的锁：所有对 Editor 的修改和 apply() 都在这个锁中进行，
+     * 保证磁盘中数据的修改顺序和调用顺序一致，[flush]不会用旧的延迟写入覆盖之后直接写入的值。
+     */
+    private val deferredWrites = LinkedHashMap<String, Any?>()
+    private var flushScheduled = false
+    private val mainHandler by lazy { Handler(Looper.getMainLooper()) }
+    private val flushRunnable = Runnable {
+        synchronized(deferredWrites) {
+            flushScheduled = false
+        }
+        flush()
+    }
+
+    /**
+     * 监听其它地方直接修改同一个 SharedPreferences 文件的情况。
+     * 注意：SharedPreferences 只持有监听器的弱引用，所以必须作为成员变量保存。
+     */
+    private val onSharedPreferenceChangeListener = SharedPreferences.OnSharedPreferenceChangeListener { _, key ->
+        if (key == null) {
+            reloadSnapshot()
+        } else {
+            reloadSnapshot(key)
+        }
+    }
 
     companion object {
         private const val NOT_INIT_EXCEPTION = "you must init SPUtils by init() first"
         private const val KEY_IS_EMPTY_EXCEPTION = "key is empty"
         private const val SHARED_PREFERENCES_FILE_SUFFIX = ".sharedPreferences"
+        private const val DEFERRED_WRITE_DELAY_MILLIS = 16L// 一帧的时间
 
         @JvmStatic
         fun getInstance(): SPUtils {
@@ -38,10 +102,65 @@ class SPUtils private constructor() {
     @JvmOverloads
     fun init(context: Context, sharedPreferencesFileName: String = context.packageName) {
         if (!::prefs.isInitialized) {
+            checkNotMainThread(strictMode, "init")
             prefs = context.applicationContext.getSharedPreferences(
                 "$sharedPreferencesFileName$SHARED_PREFERENCES_FILE_SUFFIX",
                 Context.MODE_PRIVATE
             )
+            reloadSnapshot()
+            prefs.registerOnSharedPreferenceChangeListener(onSharedPreferenceChangeListener)
+        }
+    }
+
+    internal fun isInitialized(): Boolean = ::prefs.isInitialized
+
+    /**
+     * 还没写入磁盘的延迟写入的 key 保持快照中的值，它们稍后会覆盖磁盘中的数据。
+     */
+    private fun reloadSnapshot() {
+        try {
+            val all = prefs.all
+            val pending = synchronized(deferredWrites) { HashSet(deferredWrites.keys) }
+            decoded.keys.retainAll(pending)
+            snapshot.keys.retainAll(HashSet(all.keys).apply { addAll(pending) })
+            all.forEach { (key, value) ->
+                if (value != null && key !in pending) snapshot[key] = value
+            }
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+        notifier.notifyAllChanged()
+    }
+
+    /**
+     * 按照快照中已有的类型直接读取一个 key，只有快照中没有这个 key 时才需要通过 getAll() 读取。
+     * 这个 key 有还没写入磁盘的延迟写入时不重新加载，否则会被磁盘中的旧值覆盖。
+     */
+    private fun reloadSnapshot(key: String) {
+        if (synchronized(deferredWrites) { deferredWrites.containsKey(key) }) return
+        try {
+            decoded.remove(key)
+            if (!prefs.contains(key)) {
+                snapshot.remove(key)
+                return// finally 中会通知
+            }
+            val value = when (snapshot[key]) {
+                is String -> prefs.getString(key, null)
+                is Boolean -> prefs.getBoolean(key, false)
+                is Int -> prefs.getInt(key, 0)
+                is Long -> prefs.getLong(key, 0L)
+                is Float -> prefs.getFloat(key, 0f)
+                is Set<*> -> prefs.getStringSet(key, null)?.toSet()
+                else -> prefs.all[key]
+            }
+            if (value == null) snapshot.remove(key) else snapshot[key] = value
+        } catch (e: ClassCastException) {
+            // 类型已经改变
+            prefs.all[key]?.let { snapshot[key] = it } ?: snapshot.remove(key)
+        } catch (e: Exception) {
+            e.printStackTrace()
+        } finally {
+            notifier.notifyChanged(key)
         }
     }
 
@@ -54,16 +173,122 @@ class SPUtils private constructor() {
     fun <T> get(key: String, default: T): T {
         require(::prefs.isInitialized) { NOT_INIT_EXCEPTION }
         require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
-        getAll()?.forEach {
-            if (it.key == key) {
-                return try {
-                    it.value as T
-                } catch (e: Exception) {
-                    default
-                }
+        val result: Any? = when (default) {
+            is String -> getString(key, default)
+            is Boolean -> getBoolean(key, default)
+            is Int -> getInt(key, default)
+            is Long -> getLong(key, default)
+            is Float -> getFloat(key, default)
+            is Double -> getDouble(key, default)
+            is ByteArray -> getByteArray(key, default)
+            is Enum<*> -> decodeEnum(key, default.declaringClass, default)
+            else -> snapshot[key] ?: default
+        }
+        return try {
+            result as T
+        } catch (e: Exception) {
+            default
+        }
+    }
+
+    @Throws(IllegalArgumentException::class)
+    fun getString(key: String, default: String?): String? {
+        require(::prefs.isInitialized) { NOT_INIT_EXCEPTION }
+        require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
+        return snapshot[key] as? String ?: default
+    }
+
+    @Throws(IllegalArgumentException::class)
+    fun getBoolean(key: String, default: Boolean): Boolean {
+        require(::prefs.isInitialized) { NOT_INIT_EXCEPTION }
+        require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
+        return snapshot[key] as? Boolean ?: default
+    }
+
+    @Throws(IllegalArgumentException::class)
+    fun getInt(key: String, default: Int): Int {
+        require(::prefs.isInitialized) { NOT_INIT_EXCEPTION }
+        require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
+        return snapshot[key] as? Int ?: default
+    }
+
+    @Throws(IllegalArgumentException::class)
+    fun getLong(key: String, default: Long): Long {
+        require(::prefs.isInitialized) { NOT_INIT_EXCEPTION }
+        require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
+        return snapshot[key] as? Long ?: default
+    }
+
+    @Throws(IllegalArgumentException::class)
+    fun getFloat(key: String, default: Float): Float {
+        require(::prefs.isInitialized) { NOT_INIT_EXCEPTION }
+        require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
+        return snapshot[key] as? Float ?: default
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    @Throws(IllegalArgumentException::class)
+    fun getStringSet(key: String, default: Set<String>?): Set<String>? {
+        require(::prefs.isInitialized) { NOT_INIT_EXCEPTION }
+        require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
+        return snapshot[key] as? Set<String> ?: default
+    }
+
+    @Throws(IllegalArgumentException::class)
+    fun getDouble(key: String, default: Double): Double {
+        require(::prefs.isInitialized) { NOT_INIT_EXCEPTION }
+        require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
+        return decode(key, Double::class.java) { (it as? Long)?.let { raw -> Double.fromBits(raw) } } ?: default
+    }
+
+    /**
+     * 注意：返回的是缓存中的数组，不要修改它。
+     */
+    @Throws(IllegalArgumentException::class)
+    fun getByteArray(key: String, default: ByteArray?): ByteArray? {
+        require(::prefs.isInitialized) { NOT_INIT_EXCEPTION }
+        require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
+        return decode(key, ByteArray::class.java) {
+            try {
+                (it as? String)?.let { raw -> Base64.decode(raw, Base64.NO_WRAP) }
+            } catch (e: IllegalArgumentException) {
+                null
             }
+        } ?: default
+    }
+
+    @Throws(IllegalArgumentException::class)
+    inline fun <reified E : Enum<E>> getEnum(key: String, default: E?): E? = getEnum(key, E::class.java, default)
+
+    @Suppress("UNCHECKED_CAST")
+    @Throws(IllegalArgumentException::class)
+    fun <E : Enum<E>> getEnum(key: String, enumClass: Class<E>, default: E?): E? {
+        require(::prefs.isInitialized) { NOT_INIT_EXCEPTION }
+        require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
+        return decodeEnum(key, enumClass, default) as E?
+    }
+
+    private fun decodeEnum(key: String, enumClass: Class<*>, default: Enum<*>?): Enum<*>? =
+        decode(key, enumClass) { raw ->
+            enumClass.enumConstants?.firstOrNull { (it as Enum<*>).name == raw } as Enum<*>?
+        } ?: default
+
+    /**
+     * 从[decoded]中读取[key]解码为[type]后的值，没有时用[decoder]解码快照中的值并缓存。不会修改快照。
+     *
+     * @return 不存在或者解码失败时返回 null
+     */
+    @Suppress("UNCHECKED_CAST")
+    private inline fun <T : Any> decode(key: String, type: Class<*>, decoder: (raw: Any) -> T?): T? {
+        val raw = snapshot[key] ?: return null
+        val cached = decoded[key]
+        if (cached != null && cached.raw === raw && cached.type == type) {
+            return cached.value as T
         }
-        return default
+        val value = decoder(raw) ?: return null
+        // 解码期间快照被修改时，缓存的 raw 和快照中的值不是同一个对象，下次读取时会重新解码
+        decoded[key] = Decoded(raw, type, value)
+        return value
     }
 
     /**
@@ -74,23 +299,78 @@ class SPUtils private constructor() {
     fun put(key: String, value: Any?) {
         require(::prefs.isInitialized) { NOT_INIT_EXCEPTION }
         require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
-        if (value == null) {
-            remove(key)
-        } else {
-            try {
-                with(prefs.edit()) {
-                    when (value) {
-                        is String -> putString(key, value)
-                        is Boolean -> putBoolean(key, value)
-                        is Int -> putInt(key, value)
-                        is Long -> putLong(key, value)
-                        is Float -> putFloat(key, value)
-                        else -> null
-                    }?.apply()
+        try {
+            synchronized(deferredWrites) {
+                deferredWrites.remove(key)
+                val editor = prefs.edit()
+                if (put(editor, key, value)) {
+                    editor.apply()
                 }
-            } catch (e: Exception) {
-                e.printStackTrace()
             }
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+    }
+
+    /**
+     * 写入 editor 并同步更新快照
+     * @return 是否写入成功，不支持的类型返回 false
+     */
+    private fun put(editor: SharedPreferences.Editor, key: String, value: Any?): Boolean {
+        if (value == null) {
+            snapshot.remove(key)
+            decoded.remove(key)
+            editor.remove(key)
+            notifier.notifyChanged(key)
+            return true
+        }
+        val raw = toRaw(value) ?: return false
+        putRaw(editor, key, raw)
+        updateSnapshot(key, raw, value)
+        notifier.notifyChanged(key)
+        return true
+    }
+
+    /**
+     * 把[toRaw]转换后的值写入 editor，不更新快照
+     */
+    @Suppress("UNCHECKED_CAST")
+    private fun putRaw(editor: SharedPreferences.Editor, key: String, raw: Any) {
+        when (raw) {
+            is String -> editor.putString(key, raw)
+            is Boolean -> editor.putBoolean(key, raw)
+            is Int -> editor.putInt(key, raw)
+            is Long -> editor.putLong(key, raw)
+            is Float -> editor.putFloat(key, raw)
+            is Set<*> -> editor.putStringSet(key, raw as Set<String>)
+        }
+    }
+
+    /**
+     * 转换为 SharedPreferences 中存储的类型
+     *
+     * @return 不支持的类型返回 null
+     */
+    private fun toRaw(value: Any): Any? = when (value) {
+        is String, is Boolean, is Int, is Long, is Float -> value
+        is Double -> value.toRawBits()
+        is ByteArray -> Base64.encodeToString(value, Base64.NO_WRAP)
+        is Enum<*> -> value.name
+        // SharedPreferences 不会复制传入的 Set，所以这里复制一份
+        is Set<*> -> if (value.all { it is String }) value.toSet() else null
+        else -> null
+    }
+
+    /**
+     * 快照中保存存储的类型，需要解码的类型同时把写入的值放入[decoded]，之后读取时不用再解码。
+     */
+    private fun updateSnapshot(key: String, raw: Any, value: Any) {
+        snapshot[key] = raw
+        when (value) {
+            is Double -> decoded[key] = Decoded(raw, Double::class.java, value)
+            is ByteArray -> decoded[key] = Decoded(raw, ByteArray::class.java, value)
+            is Enum<*> -> decoded[key] = Decoded(raw, value.declaringClass, value)
+            else -> decoded.remove(key)
         }
     }
 
@@ -103,10 +383,16 @@ class SPUtils private constructor() {
         require(::prefs.isInitialized) { NOT_INIT_EXCEPTION }
         require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
         try {
-            prefs.edit().remove(key).apply()
+            synchronized(deferredWrites) {
+                deferredWrites.remove(key)
+                snapshot.remove(key)
+                decoded.remove(key)
+                prefs.edit().remove(key).apply()
+            }
         } catch (e: Exception) {
             e.printStackTrace()
         }
+        notifier.notifyChanged(key)
     }
 
     /**
@@ -116,49 +402,168 @@ class SPUtils private constructor() {
     fun clear() {
         require(::prefs.isInitialized) { NOT_INIT_EXCEPTION }
         try {
-            prefs.edit().clear().apply()
+            synchronized(deferredWrites) {
+                deferredWrites.clear()
+                snapshot.clear()
+                decoded.clear()
+                prefs.edit().clear().apply()
+            }
         } catch (e: Exception) {
             e.printStackTrace()
         }
+        notifier.notifyAllChanged()
     }
 
     /**
-     * 查询某个key是否已经存在
-     * @param key
-     * @return
+     * 批量修改，所有修改使用同一个 Editor，最后只调用一次 apply()，即只有一次磁盘写入。
+     *
+     * 示例：SPUtils.getInstance().edit { put("a", 1); put("b", "2"); remove("c") }
      */
     @Throws(IllegalArgumentException::class)
-    fun contains(key: String): Boolean {
+    fun edit(block: Batch.() -> Unit) {
         require(::prefs.isInitialized) { NOT_INIT_EXCEPTION }
-        require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
-        return try {
-            prefs.contains(key)
+        try {
+            synchronized(deferredWrites) {
+                val batch = Batch(prefs.edit())
+                batch.block()
+                batch.editor.apply()
+            }
         } catch (e: Exception) {
             e.printStackTrace()
-            false
         }
     }
 
+    inner class Batch internal constructor(internal val editor: SharedPreferences.Editor) {
+
+        /**
+         * @param value     如果为 null，则会移除对应的数据。
+         */
+        fun put(key: String, value: Any?) {
+            require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
+            deferredWrites.remove(key)
+            put(editor, key, value)
+        }
+
+        fun remove(key: String) {
+            put(key, null)
+        }
+
+    }
+
     /**
-     * 返回所有的键值对数据
-     * @return
+     * 延迟写入。快照会立即更新，所以 get 能马上读取到新值；
+     * 磁盘写入会延迟[DEFERRED_WRITE_DELAY_MILLIS]毫秒，这段时间内的所有延迟写入合并为一次 apply()。
+     * 适用于在一次操作中连续修改多个属性的情况，比如开启了 deferred 的[SharedPreferencesDelegate]。
+     * 注意：如果进程在延迟时间内被杀死，这些修改会丢失，需要立即写入时调用[flush]。
+     *
+     * @param value     如果为 null，则会移除对应的数据。
      */
     @Throws(IllegalArgumentException::class)
-    fun getAll(): Map<String, Any?>? {
+    fun putDeferred(key: String, value: Any?) {
         require(::prefs.isInitialized) { NOT_INIT_EXCEPTION }
-        return try {
-            prefs.all
+        require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
+        val raw = if (value == null) null else toRaw(value) ?: return
+        synchronized(deferredWrites) {
+            if (raw == null) {
+                snapshot.remove(key)
+                decoded.remove(key)
+            } else {
+                updateSnapshot(key, raw, value!!)
+            }
+            deferredWrites[key] = raw
+            if (!flushScheduled) {
+                flushScheduled = true
+                mainHandler.postDelayed(flushRunnable, DEFERRED_WRITE_DELAY_MILLIS)
+            }
+        }
+        notifier.notifyChanged(key)
+    }
+
+    /**
+     * 立即写入所有延迟写入的数据
+     */
+    fun flush() {
+        if (!::prefs.isInitialized) return
+        try {
+            // 和直接写入使用同一个锁，写入期间直接写入的值不会被这里的旧值覆盖。快照在 putDeferred 时已经更新过了。
+            synchronized(deferredWrites) {
+                if (deferredWrites.isEmpty()) return
+                val editor = prefs.edit()
+                deferredWrites.forEach { (key, raw) ->
+                    if (raw == null) editor.remove(key) else putRaw(editor, key, raw)
+                }
+                deferredWrites.clear()
+                editor.apply()
+            }
         } catch (e: Exception) {
             e.printStackTrace()
-            null
         }
     }
 
+    suspend fun initSuspend(context: Context, sharedPreferencesFileName: String = context.packageName) =
+        withContext(STORAGE_DISPATCHER) {
+            init(context, sharedPreferencesFileName)
+        }
+
+    /**
+     * 使用 commit() 同步写入磁盘，在[STORAGE_DISPATCHER]中执行。
+     * @param value     如果为 null，则会移除对应的数据。
+     * @return 是否写入成功
+     */
+    @Throws(IllegalArgumentException::class)
+    suspend fun putSuspend(key: String, value: Any?): Boolean {
+        require(::prefs.isInitialized) { NOT_INIT_EXCEPTION }
+        require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
+        return withContext(STORAGE_DISPATCHER) {
+            try {
+                // commit() 也在锁中执行，否则之后的延迟写入可能先于它修改 SharedPreferences 中的数据，然后被它覆盖
+                synchronized(deferredWrites) {
+                    deferredWrites.remove(key)
+                    val editor = prefs.edit()
+                    put(editor, key, value) && editor.commit()
+                }
+            } catch (e: Exception) {
+                e.printStackTrace()
+                false
+            }
+        }
+    }
+
+    /**
+     * 监听[key]对应的数据。收集时先发射当前的值，之后每次改变时发射新的值（包括其它地方直接修改同一个 SharedPreferences 文件）。
+     * 只从内存中的快照读取，不会读取磁盘。
+     */
+    fun <T> observe(key: String, default: T): Flow<T> =
+        notifier.changes(key).map { get(key, default) }.distinctUntilChanged()
+
+    /**
+     * 查询某个key是否已经存在。从快照中查询，包括还没写入磁盘的延迟写入。
+     * @param key
+     * @return
+     */
+    @Throws(IllegalArgumentException::class)
+    fun contains(key: String): Boolean {
+        require(::prefs.isInitialized) { NOT_INIT_EXCEPTION }
+        require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
+        return snapshot.containsKey(key)
+    }
+
+    /**
+     * 返回所有的键值对数据，即快照的副本。Double、ByteArray、枚举为存储的类型。
+     * @return
+     */
+    @Throws(IllegalArgumentException::class)
+    fun getAll(): Map<String, Any?>? {
+        require(::prefs.isInitialized) { NOT_INIT_EXCEPTION }
+        return HashMap<String, Any?>(snapshot)
+    }
+
 }
 
 /**
  * SharedPreferences属性委托
- * 支持基本数据类型：String、Boolean、Int、Long、Float
+ * 支持的数据类型：String、Boolean、Int、Long、Float、Double、Set<String>、ByteArray、枚举
+ * 注意：Double、ByteArray、枚举类型的[default]不能为 null，因为需要根据它的类型来解码。
  *
  * 示例：var xxx by SharedPreferencesDelegate()
  *
@@ -166,12 +571,15 @@ class SPUtils private constructor() {
  * @property sharedPreferencesFileName  sharedPreferences对于的文件名字
  * @property key                        存储的key
  * @property default                    获取失败时，返回的默认值
+ * @property deferred                   是否延迟写入，默认为 false。为 true 时一帧内对多个属性的赋值合并为一次磁盘写入，
+ *                                      但是进程在延迟时间内被杀死时这些修改会丢失，见[SPUtils.putDeferred]
  */
 class SharedPreferencesDelegate<T>(
     private val context: Context? = null,
     private val sharedPreferencesFileName: String,
     private val key: String,
-    private val default: T
+    private val default: T,
+    private val deferred: Boolean = false
 ) : ReadWriteProperty<Any?, T> {
     init {
         context?.applicationContext?.let {
@@ -184,7 +592,11 @@ class SharedPreferencesDelegate<T>(
     }
 
     override fun setValue(thisRef: Any?, property: KProperty<*>, value: T) {
-        SPUtils.getInstance().put(key, value)
+        if (deferred) {
+            SPUtils.getInstance().putDeferred(key, value)
+        } else {
+            SPUtils.getInstance().put(key, value)
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,348 @@
+package com.like.common.util
+
+import java.io.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 为数据类生成二进制编解码器，由 codec-compiler 模块在编译时生成，类名为"类名_BinaryCodec"（内部类为"外部类名_内部类名_BinaryCodec"）。
+ * 生成的编解码器直接调用 getter 和构造函数，不使用反射，比 ObjectOutputStream 快很多，数据也更小。
+ *
+ * 使用：
+ * 1、在 build.gradle 中添加：kapt project(':codec-compiler')
+ * 2、在数据类上添加注解：@BinaryCodec data class User(val name: String, val age: Int)
+ * 之后[SerializableUtils]会自动使用生成的编解码器，不需要再实现 Serializable 接口。
+ *
+ * 要求：必须有一个构造函数，它的参数名和字段名一一对应（Kotlin 数据类的主构造函数就满足），只会保存这个构造函数的参数对应的字段，不能是泛型类。
+ * 字段类型可以是基本数据类型及其包装类型、String、ByteArray、枚举、被[BinaryCodec]注解的类，其它类型（比如 List、Map）按照[SerializableCodecs.writeValue]的规则保存。
+ * 修改字段（增删或者调整顺序）后，旧数据将无法读取。
+ * 数据中保存了类名和枚举常量名，开启混淆时需要使用 common 模块的 proguard-binaryCodec.pro。
+ */
+@Retention(AnnotationRetention.RUNTIME)// 混淆规则需要匹配这个注解
+@Target(AnnotationTarget.CLASS)
+annotation class BinaryCodec
+
+/**
+ * 编解码器
+ */
+interface SerializableCodec<T> {
+    @Throws(IOException::class)
+    fun encode(value: T, output: DataOutput)
+
+    @Throws(IOException::class)
+    fun decode(input: DataInput): T
+}
+
+/**
+ * 编解码器的注册表，以及[SerializableUtils]的数据格式。
+ *
+ * 有编解码器的对象按照以下格式保存：magic(2字节) version(byte) 类名(UTF) 数据
+ * 其它对象仍然使用 ObjectOutputStream 保存。读取时根据前两个字节区分：ObjectOutputStream 的数据总是以 0xACED 开头。
+ * 所以以前保存的数据仍然可以读取。
+ */
+object SerializableCodecs {
+    private const val MAGIC = 0x4C42// "LB"
+    private const val VERSION = 1
+    private const val JAVA_SERIALIZATION_MAGIC = 0xACED.toShort().toInt()
+    private const val GENERATED_CODEC_SUFFIX = "_BinaryCodec"
+
+    private const val TYPE_NULL = 0
+    private const val TYPE_BOOLEAN = 1
+    private const val TYPE_BYTE = 2
+    private const val TYPE_SHORT = 3
+    private const val TYPE_CHAR = 4
+    private const val TYPE_INT = 5
+    private const val TYPE_LONG = 6
+    private const val TYPE_FLOAT = 7
+    private const val TYPE_DOUBLE = 8
+    private const val TYPE_STRING = 9
+    private const val TYPE_BYTE_ARRAY = 10
+    private const val TYPE_LIST = 11
+    private const val TYPE_SET = 12
+    private const val TYPE_MAP = 13
+    private const val TYPE_ENUM = 14
+    private const val TYPE_CODEC = 15
+    private const val TYPE_SERIALIZABLE = 16
+
+    /**
+     * 缓存中表示没有编解码器的标记，避免每次都通过反射查找生成的编解码器。ConcurrentHashMap 不能保存 null。
+     */
+    private val NO_CODEC = Any()
+
+    private val codecs = ConcurrentHashMap<Class<*>, Any>()// 类 -> 编解码器或者[NO_CODEC]
+
+    /**
+     * 手动注册编解码器。用于不能使用注解生成的类，比如第三方库中的类。
+     */
+    fun <T> register(clazz: Class<T>, codec: SerializableCodec<T>) {
+        codecs[clazz] = codec
+    }
+
+    /**
+     * 获取[clazz]的编解码器，先查找注册的，再查找生成的。
+     * @return 没有编解码器时返回 null
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun <T> get(clazz: Class<T>): SerializableCodec<T>? {
+        val codec = codecs[clazz] ?: (loadGeneratedCodec(clazz) ?: NO_CODEC).also { codecs[clazz] = it }
+        return if (codec === NO_CODEC) null else codec as SerializableCodec<T>
+    }
+
+    /**
+     * @return 没有生成的编解码器时返回 null
+     */
+    private fun loadGeneratedCodec(clazz: Class<*>): SerializableCodec<*>? {
+        if (clazz.isPrimitive || clazz.isArray || clazz.name.startsWith("java.")) return null
+        val packageName = clazz.`package`?.name ?: ""
+        val simpleNames = clazz.name.removePrefix(if (packageName.isEmpty()) "" else "$packageName.").replace('$', '_')
+        val codecClassName = if (packageName.isEmpty()) {
+            "$simpleNames$GENERATED_CODEC_SUFFIX"
+        } else {
+            "$packageName.$simpleNames$GENERATED_CODEC_SUFFIX"
+        }
+        return try {
+            Class.forName(codecClassName, true, clazz.classLoader).getDeclaredConstructor().newInstance() as SerializableCodec<*>
+        } catch (e: ClassNotFoundException) {
+            null
+        }
+    }
+
+    /**
+     * 保存对象。有编解码器时使用编解码器，否则使用 ObjectOutputStream。
+     */
+    @Throws(IOException::class)
+    fun write(value: Any, output: OutputStream) {
+        val codec = get(value.javaClass)
+        if (codec == null) {
+            ObjectOutputStream(output).apply {
+                writeObject(value)
+                flush()
+            }
+            return
+        }
+        val dataOutput = DataOutputStream(output)
+        dataOutput.writeShort(MAGIC)
+        dataOutput.writeByte(VERSION)
+        dataOutput.writeUTF(value.javaClass.name)
+        codec.encode(value, dataOutput)
+        dataOutput.flush()
+    }
+
+    /**
+     * 读取[write]保存的对象，也可以读取直接使用 ObjectOutputStream 保存的对象。
+     */
+    @Throws(IOException::class, ClassNotFoundException::class)
+    fun read(input: InputStream): Any? {
+        val bufferedInput = if (input.markSupported()) input else BufferedInputStream(input)
+        bufferedInput.mark(2)
+        val dataInput = DataInputStream(bufferedInput)
+        val magic = dataInput.readShort().toInt()
+        if (magic == JAVA_SERIALIZATION_MAGIC) {
+            bufferedInput.reset()
+            return ObjectInputStream(bufferedInput).readObject()
+        }
+        if (magic != MAGIC) throw StreamCorruptedException("invalid magic: $magic")
+        val version = dataInput.readUnsignedByte()
+        if (version != VERSION) throw StreamCorruptedException("unsupported version: $version")
+        val className = dataInput.readUTF()
+        val codec = get(Class.forName(className)) ?: throw ClassNotFoundException("no codec for $className")
+        return codec.decode(dataInput)
+    }
+
+    /**
+     * 保存任意类型的值，先写入类型，所以可以为 null。生成的编解码器用它保存没有专门处理的字段类型。
+     * 支持：基本数据类型的包装类型、String、ByteArray、List、Set、Map、枚举、有编解码器的类，其它类型按照 Serializable 保存。
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun writeValue(output: DataOutput, value: Any?) {
+        when (value) {
+            null -> output.writeByte(TYPE_NULL)
+            is Boolean -> {
+                output.writeByte(TYPE_BOOLEAN)
+                output.writeBoolean(value)
+            }
+            is Byte -> {
+                output.writeByte(TYPE_BYTE)
+                output.writeByte(value.toInt())
+            }
+            is Short -> {
+                output.writeByte(TYPE_SHORT)
+                output.writeShort(value.toInt())
+            }
+            is Char -> {
+                output.writeByte(TYPE_CHAR)
+                output.writeChar(value.code)
+            }
+            is Int -> {
+                output.writeByte(TYPE_INT)
+                output.writeInt(value)
+            }
+            is Long -> {
+                output.writeByte(TYPE_LONG)
+                output.writeLong(value)
+            }
+            is Float -> {
+                output.writeByte(TYPE_FLOAT)
+                output.writeFloat(value)
+            }
+            is Double -> {
+                output.writeByte(TYPE_DOUBLE)
+                output.writeDouble(value)
+            }
+            is String -> {
+                output.writeByte(TYPE_STRING)
+                writeString(output, value)
+            }
+            is ByteArray -> {
+                output.writeByte(TYPE_BYTE_ARRAY)
+                writeByteArray(output, value)
+            }
+            is List<*> -> {
+                output.writeByte(TYPE_LIST)
+                output.writeInt(value.size)
+                value.forEach { writeValue(output, it) }
+            }
+            is Set<*> -> {
+                output.writeByte(TYPE_SET)
+                output.writeInt(value.size)
+                value.forEach { writeValue(output, it) }
+            }
+            is Map<*, *> -> {
+                output.writeByte(TYPE_MAP)
+                output.writeInt(value.size)
+                value.forEach { (k, v) ->
+                    writeValue(output, k)
+                    writeValue(output, v)
+                }
+            }
+            is Enum<*> -> {
+                output.writeByte(TYPE_ENUM)
+                output.writeUTF(value.declaringClass.name)
+                output.writeUTF(value.name)
+            }
+            else -> {
+                val codec = get(value.javaClass)
+                if (codec != null) {
+                    output.writeByte(TYPE_CODEC)
+                    output.writeUTF(value.javaClass.name)
+                    codec.encode(value, output)
+                } else {
+                    output.writeByte(TYPE_SERIALIZABLE)
+                    writeByteArray(output, ByteArrayOutputStream().also {
+                        ObjectOutputStream(it).use { oos -> oos.writeObject(value) }
+                    }.toByteArray())
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取[writeValue]保存的值
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun readValue(input: DataInput): Any? =
+        when (val type = input.readUnsignedByte()) {
+            TYPE_NULL -> null
+            TYPE_BOOLEAN -> input.readBoolean()
+            TYPE_BYTE -> input.readByte()
+            TYPE_SHORT -> input.readShort()
+            TYPE_CHAR -> input.readChar()
+            TYPE_INT -> input.readInt()
+            TYPE_LONG -> input.readLong()
+            TYPE_FLOAT -> input.readFloat()
+            TYPE_DOUBLE -> input.readDouble()
+            TYPE_STRING -> readString(input)
+            TYPE_BYTE_ARRAY -> readByteArray(input)
+            TYPE_LIST -> {
+                val size = input.readInt()
+                ArrayList<Any?>(size).apply { repeat(size) { add(readValue(input)) } }
+            }
+            TYPE_SET -> {
+                val size = input.readInt()
+                LinkedHashSet<Any?>(size).apply { repeat(size) { add(readValue(input)) } }
+            }
+            TYPE_MAP -> {
+                val size = input.readInt()
+                LinkedHashMap<Any?, Any?>(size).apply { repeat(size) { put(readValue(input), readValue(input)) } }
+            }
+            TYPE_ENUM -> {
+                val enumClass = loadClass(input.readUTF())
+                val name = input.readUTF()
+                enumClass.enumConstants?.firstOrNull { (it as Enum<*>).name == name }
+            }
+            TYPE_CODEC -> {
+                val className = input.readUTF()
+                val codec = get(loadClass(className)) ?: throw StreamCorruptedException("no codec for $className")
+                codec.decode(input)
+            }
+            TYPE_SERIALIZABLE -> try {
+                ObjectInputStream(ByteArrayInputStream(readByteArray(input))).use { it.readObject() }
+            } catch (e: ClassNotFoundException) {
+                throw InvalidClassException(e.message)
+            }
+            else -> throw StreamCorruptedException("unknown type: $type")
+        }
+
+    /**
+     * 保存字符串，可以为 null。和 DataOutput.writeUTF 不同，没有 65535 字节的长度限制。
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun writeString(output: DataOutput, value: String?) {
+        writeByteArray(output, value?.toByteArray(Charsets.UTF_8))
+    }
+
+    @JvmStatic
+    @Throws(IOException::class)
+    fun readString(input: DataInput): String? = readByteArray(input)?.toString(Charsets.UTF_8)
+
+    /**
+     * 长度为 -1 表示 null
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun writeByteArray(output: DataOutput, value: ByteArray?) {
+        if (value == null) {
+            output.writeInt(-1)
+        } else {
+            output.writeInt(value.size)
+            output.write(value)
+        }
+    }
+
+    @JvmStatic
+    @Throws(IOException::class)
+    fun readByteArray(input: DataInput): ByteArray? {
+        val length = input.readInt()
+        if (length < 0) return null
+        return ByteArray(length).also { input.readFully(it) }
+    }
+
+    /**
+     * 供生成的编解码器保存被[BinaryCodec]注解的字段，可以为 null。
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun <T> writeObject(output: DataOutput, value: T?, codec: SerializableCodec<T>) {
+        if (value == null) {
+            output.writeBoolean(false)
+        } else {
+            output.writeBoolean(true)
+            codec.encode(value, output)
+        }
+    }
+
+    @JvmStatic
+    @Throws(IOException::class)
+    fun <T> readObject(input: DataInput, codec: SerializableCodec<T>): T? =
+        if (input.readBoolean()) codec.decode(input) else null
+
+    private fun loadClass(className: String): Class<*> =
+        try {
+            Class.forName(className)
+        } catch (e: ClassNotFoundException) {
+            throw InvalidClassException(className, "class not found")
+        }
+
+}
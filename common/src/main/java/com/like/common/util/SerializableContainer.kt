@@ -0,0 +1,372 @@
+package com.like.common.util
+
+import java.io.*
+import java.util.zip.CRC32
+
+/**
+ * [SerializableUtils]的数据文件。所有 key 的数据都保存在同一个文件中，代替以前每个 key 一个文件的方式，
+ * 避免数据多时占用大量的 inode，以及遍历目录带来的开销。
+ *
+ * 写入时只在文件末尾追加一条记录，同一个 key 的旧记录成为垃圾；内存中保存 key 到最新记录的位置的索引，
+ * 所以 contains、keys 不需要读取文件，get 只需要一次 seek 和一次读取。
+ * 垃圾超过一定比例时，在后台线程中进行压缩：只把有效的记录写入临时文件，同步到磁盘后再重命名替换原文件，所以压缩过程中进程被杀死或者断电，原文件仍然是完整的。
+ * 压缩时只在复制索引和替换文件时持有锁，写入临时文件和同步到磁盘期间不会阻塞读写，见[compact]。
+ *
+ * 文件格式（大端序）：
+ * 头部[HEADER_SIZE]字节：magic(int) version(int)
+ * 记录：keyLength(short) key(UTF-8) valueLength(int，-1表示移除) crc(int) value
+ * 其中 crc 是 key、valueLength、value 的 CRC32。
+ *
+ * 崩溃恢复：打开文件时顺序读取一遍所有记录并校验 crc，遇到不完整或者校验失败的记录（写入时进程被杀死或者断电），
+ * 从这条记录开始截断文件，之前的记录都是完整的。get 时也会再次校验，数据损坏时当作不存在，而不是返回错误的数据。
+ * 版本 1 的文件没有 crc，打开后会立即按照当前版本重写。
+ *
+ * @param file  数据文件
+ */
+internal class SerializableContainer(private val file: File) {
+    companion object {
+        private const val MAGIC = 0x4C534331// "LSC1"
+        private const val VERSION = 2
+        private const val VERSION_WITHOUT_CRC = 1
+        private const val HEADER_SIZE = 8
+        private const val SCAN_BUFFER_SIZE = 64 * 1024
+        private const val REMOVED = -1
+        private const val COMPACT_MIN_GARBAGE_BYTES = 64 * 1024L
+    }
+
+    /**
+     * @property position   value 在文件中的位置
+     * @property length     value 的字节数
+     * @property recordSize 整条记录的字节数
+     * @property crc        记录的 crc
+     */
+    private class Entry(val position: Long, val length: Int, val recordSize: Int, val crc: Int)
+
+    private val index = HashMap<String, Entry>()
+    private lateinit var raf: RandomAccessFile
+    private var garbageBytes = 0L
+    private var compacting = false
+    private var generation = 0// 每次清空文件后加一，压缩期间文件被清空时放弃压缩
+    private var syncRequested = false// 压缩期间是否调用过[sync]
+
+    init {
+        file.parentFile?.let {
+            if (!it.exists()) it.mkdirs()
+        }
+        open()
+    }
+
+    /**
+     * 打开数据文件，顺序读取所有记录，校验 crc 并建立索引。
+     * 从第一条不完整或者校验失败的记录开始截断文件。
+     */
+    private fun open() {
+        index.clear()
+        garbageBytes = 0
+        raf = RandomAccessFile(file, "rw")
+        val length = raf.length()
+        var position = HEADER_SIZE.toLong()
+        var version = VERSION
+        if (length >= HEADER_SIZE) {
+            DataInputStream(BufferedInputStream(FileInputStream(file), SCAN_BUFFER_SIZE)).use { input ->
+                if (input.readInt() != MAGIC) {
+                    reset()
+                    return
+                }
+                version = input.readInt()
+                if (version != VERSION && version != VERSION_WITHOUT_CRC) {
+                    reset()
+                    return
+                }
+                position = scan(input, length, version == VERSION)
+            }
+        } else {
+            reset()
+            return
+        }
+        if (position < length) {
+            raf.setLength(position)
+        }
+        if (version != VERSION) {
+            try {
+                compact()
+            } catch (e: IOException) {
+                // 不能在旧版本的文件后面追加新版本的记录
+                e.printStackTrace()
+                reset()
+            }
+        }
+    }
+
+    /**
+     * @return 最后一条完整记录的结束位置
+     */
+    private fun scan(input: DataInputStream, length: Long, hasCrc: Boolean): Long {
+        var position = HEADER_SIZE.toLong()
+        val crc32 = CRC32()
+        try {
+            while (position < length) {
+                val keyBytes = ByteArray(input.readUnsignedShort()).also { input.readFully(it) }
+                val valueLength = input.readInt()
+                val crc = if (hasCrc) input.readInt() else 0
+                val headerSize = 2 + keyBytes.size + 4 + (if (hasCrc) 4 else 0)
+                val valueSize = valueLength.coerceAtLeast(0)
+                if (valueLength < REMOVED || position + headerSize + valueSize > length) break
+                val value = ByteArray(valueSize).also { input.readFully(it) }
+                val computedCrc = crc(crc32, keyBytes, valueLength, value)
+                if (hasCrc && crc != computedCrc) break
+                val key = keyBytes.toString(Charsets.UTF_8)
+                val recordSize = headerSize + valueSize
+                index.remove(key)?.let { garbageBytes += it.recordSize }
+                if (valueLength == REMOVED) {
+                    garbageBytes += recordSize
+                } else {
+                    index[key] = Entry(position + headerSize, valueLength, recordSize, computedCrc)
+                }
+                position += recordSize
+            }
+        } catch (e: EOFException) {
+        }
+        return position
+    }
+
+    private fun crc(crc32: CRC32, keyBytes: ByteArray, valueLength: Int, value: ByteArray?): Int {
+        crc32.reset()
+        crc32.update(keyBytes)
+        crc32.update(valueLength ushr 24)
+        crc32.update(valueLength ushr 16)
+        crc32.update(valueLength ushr 8)
+        crc32.update(valueLength)
+        if (value != null) crc32.update(value)
+        return crc32.value.toInt()
+    }
+
+    private fun reset() {
+        raf.setLength(0)
+        raf.seek(0)
+        raf.writeInt(MAGIC)
+        raf.writeInt(VERSION)
+        raf.fd.sync()
+        index.clear()
+        garbageBytes = 0
+        generation++
+    }
+
+    /**
+     * @return 不存在或者数据已损坏时返回 null
+     */
+    @Synchronized
+    fun get(key: String): ByteArray? {
+        val entry = index[key] ?: return null
+        raf.seek(entry.position)
+        val value = ByteArray(entry.length).also { raf.readFully(it) }
+        if (crc(CRC32(), key.toByteArray(Charsets.UTF_8), value.size, value) != entry.crc) {
+            Logger.e("SerializableContainer", "data of $key is corrupted")
+            return null
+        }
+        return value
+    }
+
+    @Synchronized
+    fun put(key: String, value: ByteArray) {
+        val position = raf.length()
+        val crc = append(key, value)
+        val recordSize = (raf.length() - position).toInt()
+        index.put(key, Entry(raf.length() - value.size, value.size, recordSize, crc))?.let {
+            garbageBytes += it.recordSize
+        }
+        compactIfNeeded()
+    }
+
+    @Synchronized
+    fun remove(key: String) {
+        val entry = index.remove(key) ?: return
+        val position = raf.length()
+        append(key, null)
+        garbageBytes += entry.recordSize + (raf.length() - position)
+        compactIfNeeded()
+    }
+
+    /**
+     * 把数据同步到磁盘。追加的记录在进程被杀死时不会丢失，只有需要保证断电也不丢失时才需要调用。
+     */
+    @Synchronized
+    fun sync() {
+        raf.fd.sync()
+        syncRequested = true
+    }
+
+    @Synchronized
+    fun clear() {
+        reset()
+    }
+
+    @Synchronized
+    fun contains(key: String): Boolean = index.containsKey(key)
+
+    @Synchronized
+    fun keys(): List<String> = index.keys.toList()
+
+    /**
+     * 先在内存中拼接完整的记录，再一次写入文件末尾。
+     * 写入失败（比如磁盘已满）时把文件截断为写入前的长度，否则只写入了一部分的记录会导致之后追加的记录在下次打开时都被丢弃。
+     * @return 记录的 crc
+     */
+    private fun append(key: String, value: ByteArray?): Int {
+        val keyBytes = key.toByteArray(Charsets.UTF_8)
+        require(keyBytes.size <= 0xFFFF) { "key is too long" }
+        val record = ByteArrayOutputStream(2 + keyBytes.size + 8 + (value?.size ?: 0))
+        val crc = writeRecord(DataOutputStream(record), keyBytes, value)
+        val length = raf.length()
+        try {
+            raf.seek(length)
+            raf.write(record.toByteArray())
+        } catch (e: IOException) {
+            try {
+                raf.setLength(length)
+            } catch (ignored: IOException) {
+                // 截断也失败时，下次打开文件会通过 crc 校验丢弃不完整的记录
+            }
+            throw e
+        }
+        return crc
+    }
+
+    private fun writeRecord(out: DataOutputStream, keyBytes: ByteArray, value: ByteArray?): Int {
+        val valueLength = value?.size ?: REMOVED
+        val crc = crc(CRC32(), keyBytes, valueLength, value)
+        out.writeShort(keyBytes.size)
+        out.write(keyBytes)
+        out.writeInt(valueLength)
+        out.writeInt(crc)
+        if (value != null) out.write(value)
+        return crc
+    }
+
+    private fun compactIfNeeded() {
+        if (compacting || garbageBytes < COMPACT_MIN_GARBAGE_BYTES || garbageBytes < raf.length() / 2) return
+        compacting = true
+        ioThread {
+            try {
+                compact()
+            } catch (e: Exception) {
+                e.printStackTrace()
+            } finally {
+                synchronized(this) {
+                    compacting = false
+                }
+            }
+        }
+    }
+
+    /**
+     * 把有效的记录写入临时文件，同步到磁盘后再重命名替换原文件。重命名是原子操作，所以任何时候原文件都是完整的。
+     *
+     * 分为三步，只有第一步和第三步持有锁，所以压缩期间不会阻塞 get、put 等方法：
+     * 1、复制索引，记录当前的文件长度；
+     * 2、把索引中有效的记录写入临时文件并同步到磁盘。写入只会追加到文件末尾，第一步记录的长度之前的数据不会改变，所以不需要持有锁；
+     * 3、把第一步之后追加的记录原样复制到临时文件末尾，重命名替换原文件，再更新索引中的位置，不需要重新扫描文件。
+     * 第三步复制的记录和普通的追加一样不同步到磁盘，除非压缩期间调用过[sync]。
+     */
+    private fun compact() {
+        val tmp = File(file.parentFile, "${file.name}.tmp")
+        val entries: List<Pair<String, Entry>>
+        val end: Long
+        val generation: Int
+        synchronized(this) {
+            entries = index.map { it.key to it.value }
+            end = raf.length()
+            generation = this.generation
+            syncRequested = false
+        }
+        val compacted = HashMap<String, Entry>(entries.size * 2)
+        var position = HEADER_SIZE.toLong()
+        try {
+            RandomAccessFile(file, "r").use { input ->
+                FileOutputStream(tmp).use { fos ->
+                    val out = DataOutputStream(BufferedOutputStream(fos))
+                    out.writeInt(MAGIC)
+                    out.writeInt(VERSION)
+                    val crc32 = CRC32()
+                    entries.forEach { (key, entry) ->
+                        input.seek(entry.position)
+                        val value = ByteArray(entry.length).also { input.readFully(it) }
+                        val keyBytes = key.toByteArray(Charsets.UTF_8)
+                        if (crc(crc32, keyBytes, value.size, value) != entry.crc) {
+                            // 已损坏的数据不再保留
+                            Logger.e("SerializableContainer", "data of $key is corrupted")
+                            return@forEach
+                        }
+                        val crc = writeRecord(out, keyBytes, value)
+                        val headerSize = 2 + keyBytes.size + 8
+                        compacted[key] = Entry(position + headerSize, value.size, headerSize + value.size, crc)
+                        position += headerSize + value.size
+                    }
+                    out.flush()
+                    fos.fd.sync()
+                }
+            }
+        } catch (e: IOException) {
+            tmp.delete()
+            throw e
+        }
+        synchronized(this) {
+            if (generation != this.generation) {
+                // 压缩期间被清空，临时文件中的数据已经无效
+                tmp.delete()
+                return
+            }
+            try {
+                copyAppended(tmp, end, position)
+            } catch (e: IOException) {
+                tmp.delete()
+                throw e
+            }
+            val newIndex = HashMap<String, Entry>(index.size * 2)
+            var liveBytes = 0L
+            index.forEach { (key, entry) ->
+                val moved = if (entry.position >= end) {
+                    // 第一步之后追加的记录，位置平移到临时文件中
+                    Entry(entry.position - end + position, entry.length, entry.recordSize, entry.crc)
+                } else {
+                    compacted[key] ?: return@forEach
+                }
+                newIndex[key] = moved
+                liveBytes += moved.recordSize
+            }
+            raf.close()
+            if (!tmp.renameTo(file)) {
+                tmp.delete()
+                // 原文件没有改变，索引仍然有效
+                raf = RandomAccessFile(file, "rw")
+                throw IOException("failed to rename ${tmp.name}")
+            }
+            raf = RandomAccessFile(file, "rw")
+            index.clear()
+            index.putAll(newIndex)
+            garbageBytes = raf.length() - HEADER_SIZE - liveBytes
+        }
+    }
+
+    /**
+     * 把原文件中[from]之后的数据复制到临时文件的[to]位置。只在[compact]中持有锁时调用。
+     */
+    private fun copyAppended(tmp: File, from: Long, to: Long) {
+        RandomAccessFile(tmp, "rw").use { out ->
+            out.seek(to)
+            raf.seek(from)
+            val buffer = ByteArray(SCAN_BUFFER_SIZE)
+            var remaining = raf.length() - from
+            while (remaining > 0) {
+                val read = raf.read(buffer, 0, minOf(buffer.size.toLong(), remaining).toInt())
+                if (read < 0) throw EOFException()
+                out.write(buffer, 0, read)
+                remaining -= read
+            }
+            if (syncRequested) {
+                out.fd.sync()
+            }
+        }
+    }
+
+}
@@ -1,23 +1,49 @@
 package com.like.common.util
 
 import android.content.Context
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.withContext
 import java.io.*
 import kotlin.properties.ReadWriteProperty
 import kotlin.reflect.KProperty
 
 /**
  * Serializable类型数据序列化工具类。
+ * 所有数据保存在同一个数据文件中，每条记录都有 crc 校验，进程被杀死或者断电导致的不完整数据会在启动时被丢弃，见[SerializableContainer]。
  *
  * Serializable 是 Java 原生序列化的方式，主要通过 ObjectInputStream 和 ObjectOutputStream 来实现对象序列化和反序列化，
  * 但是在整个过程中用到了大量的反射和临时变量，会频繁的触发 GC，序列化的性能会非常差，但是实现方式非常简单，ObjectInputStream 和 ObjectOutputStream 源码里有很多反射的地方。
+ *
+ * 所以：
+ * 1、被[BinaryCodec]注解的类会使用编译时生成的编解码器保存，不使用反射，见[SerializableCodecs]。以前使用 ObjectOutputStream 保存的数据仍然可以读取。
+ * 2、反序列化后的对象会缓存在内存中（LRU），缓存命中时不需要读取文件。
+ * 注意：缓存的是对象本身，修改 get 返回的对象或者 put 之后再修改传入的对象，都会影响之后 get 的结果，需要修改时请重新 put。
+ *
+ * get、put 等方法会读写磁盘，在主线程中请使用对应的 suspend 方法（在[STORAGE_DISPATCHER]中执行），或者通过[observe]监听数据。
+ * 开启[strictMode]后，在主线程中调用阻塞方法会抛出异常，可以用来找出主线程中的磁盘读写。
  */
 class SerializableUtils private constructor() {
-    private lateinit var serializeDir: String
+    private lateinit var container: SerializableContainer
+    private lateinit var cache: ObjectCache
+    private val notifier = KeyChangeNotifier()
+
+    /**
+     * 严格模式。开启后，在主线程中调用会读写磁盘的阻塞方法（init、get、put、remove、clear、getAll）会抛出[IllegalStateException]。
+     * get 命中内存缓存时不读取磁盘，不会抛出异常。
+     * 建议只在 debug 时开启。
+     */
+    var strictMode = false
 
     companion object {
         private const val NOT_INIT_EXCEPTION = "you must init SerializableUtils by init() first"
         private const val KEY_IS_EMPTY_EXCEPTION = "key is empty"
         private const val SERIALIZE_FILE_SUFFIX = ".serialize"
+        private const val CONTAINER_DIR = "serializable"
+        private const val CONTAINER_FILE_NAME = "serializable.data"
+        private const val DEFAULT_MAX_CACHE_ENTRIES = 64
+        private const val DEFAULT_MAX_CACHE_BYTES = 1024 * 1024L
 
         @JvmStatic
         fun getInstance(): SerializableUtils {
@@ -29,9 +55,43 @@ class SerializableUtils private constructor() {
         val instance = SerializableUtils()
     }
 
-    fun init(context: Context) {
-        if (!::serializeDir.isInitialized) {
-            serializeDir = context.applicationContext.filesDir.toString()
+    /**
+     * @param maxCacheEntries   内存中最多缓存的对象个数，为 0 时不缓存
+     * @param maxCacheBytes     内存中缓存的对象的序列化后的总字节数上限，用来近似限制缓存占用的内存
+     */
+    @JvmOverloads
+    @Synchronized
+    fun init(
+        context: Context,
+        maxCacheEntries: Int = DEFAULT_MAX_CACHE_ENTRIES,
+        maxCacheBytes: Long = DEFAULT_MAX_CACHE_BYTES
+    ) {
+        if (!::container.isInitialized) {
+            checkNotMainThread(strictMode, "init")
+            val filesDir = context.applicationContext.filesDir
+            container = SerializableContainer(File(File(filesDir, CONTAINER_DIR), CONTAINER_FILE_NAME))
+            cache = ObjectCache(maxCacheEntries, maxCacheBytes)
+            migrateLegacyFiles(filesDir)
+        }
+    }
+
+    internal fun isInitialized(): Boolean = ::container.isInitialized
+
+    /**
+     * 以前每个 key 保存为 filesDir 下的一个"$key.serialize"文件，把它们原样移入数据文件后删除，只会执行一次。
+     * 数据文件同步到磁盘后才删除旧文件，所以迁移过程中断电也不会丢失数据。
+     */
+    private fun migrateLegacyFiles(filesDir: File) {
+        try {
+            val legacyFiles = filesDir.listFiles { file -> file.isFile && file.name.endsWith(SERIALIZE_FILE_SUFFIX) }
+            if (legacyFiles.isNullOrEmpty()) return
+            legacyFiles.forEach {
+                container.put(it.nameWithoutExtension, it.readBytes())
+            }
+            container.sync()
+            legacyFiles.forEach { it.delete() }
+        } catch (e: Exception) {
+            e.printStackTrace()
         }
     }
 
@@ -42,12 +102,19 @@ class SerializableUtils private constructor() {
     @Suppress("UNCHECKED_CAST")
     @Throws(IllegalArgumentException::class)
     fun <T> get(key: String, default: T): T {
-        require(::serializeDir.isInitialized) { NOT_INIT_EXCEPTION }
+        require(::container.isInitialized) { NOT_INIT_EXCEPTION }
         require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
+        cache.get(key)?.let {
+            return it as T
+        }
+        checkNotMainThread(strictMode, "get")
         return try {
-            ObjectInputStream(FileInputStream(getSerializeFileName(key))).use {
-                it.readObject() as T
-            }
+            // 读取期间有其它线程写入时不放入缓存，避免读到的旧值覆盖写入的新值
+            val version = cache.version()
+            val bytes = container.get(key) ?: return default
+            val value = SerializableCodecs.read(ByteArrayInputStream(bytes)) ?: return default
+            cache.putIfUnchanged(key, value, bytes.size.toLong(), version)
+            value as T
         } catch (e: Exception) {
             e.printStackTrace()
             default
@@ -56,24 +123,25 @@ class SerializableUtils private constructor() {
 
     /**
      * 如果[key]已经存在，则会覆盖数据
-     * @param value     如果为 null，则会移除对应的序列化文件。
+     * @param value     如果为 null，则会移除对应的数据。
      */
     @Throws(IllegalArgumentException::class)
     fun put(key: String, value: Any?) {
-        require(::serializeDir.isInitialized) { NOT_INIT_EXCEPTION }
+        require(::container.isInitialized) { NOT_INIT_EXCEPTION }
         require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
+        checkNotMainThread(strictMode, "put")
         if (value == null) {
             remove(key)
         } else {
             try {
-                val dir = File(serializeDir)
-                if (!dir.exists()) {
-                    dir.mkdirs()
-                }
-                ObjectOutputStream(FileOutputStream(getSerializeFileName(key))).use { it.writeObject(value) }
+                val bytes = ByteArrayOutputStream().also { SerializableCodecs.write(value, it) }.toByteArray()
+                container.put(key, bytes)
+                cache.put(key, value, bytes.size.toLong())
             } catch (e: Exception) {
+                cache.remove(key)
                 e.printStackTrace()
             }
+            notifier.notifyChanged(key)
         }
     }
 
@@ -83,13 +151,18 @@ class SerializableUtils private constructor() {
      */
     @Throws(IllegalArgumentException::class)
     fun remove(key: String) {
-        require(::serializeDir.isInitialized) { NOT_INIT_EXCEPTION }
+        require(::container.isInitialized) { NOT_INIT_EXCEPTION }
         require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
+        checkNotMainThread(strictMode, "remove")
         try {
-            File(getSerializeFileName(key)).delete()
+            container.remove(key)
         } catch (e: Exception) {
             e.printStackTrace()
+        } finally {
+            // 先修改数据文件再更新缓存，见[ObjectCache.version]
+            cache.remove(key)
         }
+        notifier.notifyChanged(key)
     }
 
     /**
@@ -97,12 +170,16 @@ class SerializableUtils private constructor() {
      */
     @Throws(IllegalArgumentException::class)
     fun clear() {
-        require(::serializeDir.isInitialized) { NOT_INIT_EXCEPTION }
+        require(::container.isInitialized) { NOT_INIT_EXCEPTION }
+        checkNotMainThread(strictMode, "clear")
         try {
-            File(serializeDir).deleteRecursively()
+            container.clear()
         } catch (e: Exception) {
             e.printStackTrace()
+        } finally {
+            cache.clear()
         }
+        notifier.notifyAllChanged()
     }
 
     /**
@@ -112,16 +189,9 @@ class SerializableUtils private constructor() {
      */
     @Throws(IllegalArgumentException::class)
     fun contains(key: String): Boolean {
-        require(::serializeDir.isInitialized) { NOT_INIT_EXCEPTION }
+        require(::container.isInitialized) { NOT_INIT_EXCEPTION }
         require(key.isNotEmpty()) { KEY_IS_EMPTY_EXCEPTION }
-        return try {
-            val dir = File(serializeDir)
-            val serializeFile = File(getSerializeFileName(key))
-            serializeFile.exists() && dir.exists() && dir.walkTopDown().contains(serializeFile)
-        } catch (e: Exception) {
-            e.printStackTrace()
-            false
-        }
+        return container.contains(key)
     }
 
     /**
@@ -130,16 +200,10 @@ class SerializableUtils private constructor() {
      */
     @Throws(IllegalArgumentException::class)
     fun getAll(): Map<String, Any?>? {
-        require(::serializeDir.isInitialized) { NOT_INIT_EXCEPTION }
+        require(::container.isInitialized) { NOT_INIT_EXCEPTION }
+        checkNotMainThread(strictMode, "getAll")
         return try {
-            val result = mutableMapOf<String, Any?>()
-            File(serializeDir).walkTopDown().forEachIndexed { index, file ->
-                if (index > 0) {// 除开目录
-                    val key = file.nameWithoutExtension
-                    result[key] = get(key, null)
-                }
-            }
-            result
+            container.keys().associateWith { get<Any?>(it, null) }
         } catch (e: Exception) {
             e.printStackTrace()
             null
@@ -152,28 +216,119 @@ class SerializableUtils private constructor() {
      */
     @Throws(IllegalArgumentException::class)
     fun getKeys(): List<String>? {
-        require(::serializeDir.isInitialized) { NOT_INIT_EXCEPTION }
+        require(::container.isInitialized) { NOT_INIT_EXCEPTION }
         return try {
-            val result = mutableListOf<String>()
-            File(serializeDir).walkTopDown().forEachIndexed { index, file ->
-                if (index > 0) {// 除开目录
-                    result.add(file.nameWithoutExtension)
-                }
-            }
-            result
+            container.keys()
         } catch (e: Exception) {
             e.printStackTrace()
             null
         }
     }
 
-    private fun getSerializeFileName(key: String) = "$serializeDir/$key$SERIALIZE_FILE_SUFFIX"
+    suspend fun initSuspend(
+        context: Context,
+        maxCacheEntries: Int = DEFAULT_MAX_CACHE_ENTRIES,
+        maxCacheBytes: Long = DEFAULT_MAX_CACHE_BYTES
+    ) = withContext(STORAGE_DISPATCHER) {
+        init(context, maxCacheEntries, maxCacheBytes)
+    }
+
+    suspend fun <T> getSuspend(key: String, default: T): T = withContext(STORAGE_DISPATCHER) {
+        get(key, default)
+    }
+
+    suspend fun putSuspend(key: String, value: Any?) = withContext(STORAGE_DISPATCHER) {
+        put(key, value)
+    }
+
+    suspend fun removeSuspend(key: String) = withContext(STORAGE_DISPATCHER) {
+        remove(key)
+    }
+
+    suspend fun clearSuspend() = withContext(STORAGE_DISPATCHER) {
+        clear()
+    }
+
+    suspend fun getAllSuspend(): Map<String, Any?>? = withContext(STORAGE_DISPATCHER) {
+        getAll()
+    }
+
+    /**
+     * 监听[key]对应的数据。收集时先发射当前的值，之后每次 put、remove、clear 后如果值有变化则发射新的值。
+     */
+    fun <T> observe(key: String, default: T): Flow<T> =
+        notifier.changes(key).map { getSuspend(key, default) }.distinctUntilChanged()
+
+    /**
+     * 反序列化后的对象的 LRU 缓存，同时限制个数和总字节数（以序列化后的数据大小近似代替对象占用的内存）。
+     */
+    private class ObjectCache(private val maxEntries: Int, private val maxBytes: Long) {
+        private class Entry(val value: Any, val size: Long)
+
+        private val map = LinkedHashMap<String, Entry>(16, 0.75f, true)// 按访问顺序排列，最久未使用的在最前面
+        private var totalBytes = 0L
+
+        /**
+         * 每次写入（put、remove、clear）后加一。写入时先修改数据文件再更新缓存，
+         * 所以读取数据文件前后版本号相同，说明读到的数据不会比缓存中的旧。
+         */
+        private var version = 0L
+
+        @Synchronized
+        fun get(key: String): Any? = map[key]?.value
+
+        @Synchronized
+        fun version(): Long = version
+
+        /**
+         * 放入从数据文件中读取的数据。[version]之后有过写入时放弃，因为读到的可能是旧数据。
+         */
+        @Synchronized
+        fun putIfUnchanged(key: String, value: Any, size: Long, version: Long) {
+            if (version == this.version) {
+                store(key, value, size)
+            }
+        }
+
+        @Synchronized
+        fun put(key: String, value: Any, size: Long) {
+            version++
+            store(key, value, size)
+        }
+
+        private fun store(key: String, value: Any, size: Long) {
+            if (maxEntries <= 0 || size > maxBytes) {
+                map.remove(key)?.let { totalBytes -= it.size }
+                return
+            }
+            map.put(key, Entry(value, size))?.let { totalBytes -= it.size }
+            totalBytes += size
+            val iterator = map.values.iterator()
+            while ((map.size > maxEntries || totalBytes > maxBytes) && iterator.hasNext()) {
+                totalBytes -= iterator.next().size
+                iterator.remove()
+            }
+        }
+
+        @Synchronized
+        fun remove(key: String) {
+            version++
+            map.remove(key)?.let { totalBytes -= it.size }
+        }
+
+        @Synchronized
+        fun clear() {
+            version++
+            map.clear()
+            totalBytes = 0
+        }
+    }
 
 }
 
 /**
  * Serializable属性委托
- * 支持实现了Serializable接口的数据类
+ * 支持实现了Serializable接口的数据类，以及被[BinaryCodec]注解的数据类
  *
  * 示例：var xxx by Delegate()
  *
@@ -0,0 +1,58 @@
+package com.like.common.util
+
+import java.lang.management.ManagementFactory
+
+/**
+ * 单元测试中使用的简单微基准测试工具：先预热，再取多轮测量中最快的一轮，结果打印到标准输出。
+ *
+ * 单元测试运行在 JVM 上，结果只用于比较不同实现的相对开销，不代表在设备上的绝对耗时。
+ * 内存分配通过 com.sun.management.ThreadMXBean 统计当前线程分配的字节数，JVM 不支持时为 -1。
+ */
+object Benchmark {
+    /**
+     * 防止被测试的代码因为结果没有被使用而被 JIT 优化掉
+     */
+    @Volatile
+    var sink: Any? = null
+
+    class Result(val name: String, val nanosPerOp: Double, val bytesPerOp: Double)
+
+    private val threadMXBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+
+    /**
+     * @param operations    每一轮执行[block]的次数，参数为本轮中的序号
+     * @param rounds        测量的轮数，预热的轮数与之相同
+     */
+    fun run(name: String, operations: Int, rounds: Int = 5, block: (Int) -> Unit): Result {
+        repeat(rounds) { measure(operations, block) }
+        var bestNanos = Long.MAX_VALUE
+        var bestBytes = Long.MAX_VALUE
+        repeat(rounds) {
+            val (nanos, bytes) = measure(operations, block)
+            bestNanos = minOf(bestNanos, nanos)
+            bestBytes = minOf(bestBytes, bytes)
+        }
+        val result = Result(name, bestNanos.toDouble() / operations, bestBytes.toDouble() / operations)
+        println(String.format("%-56s %14.1f ns/op %14.1f B/op", name, result.nanosPerOp, result.bytesPerOp))
+        return result
+    }
+
+    private fun measure(operations: Int, block: (Int) -> Unit): Pair<Long, Long> {
+        val startBytes = allocatedBytes()
+        val startNanos = System.nanoTime()
+        for (i in 0 until operations) {
+            block(i)
+        }
+        val nanos = System.nanoTime() - startNanos
+        val bytes = if (startBytes < 0) -1 else allocatedBytes() - startBytes
+        return nanos to bytes
+    }
+
+    private fun allocatedBytes(): Long =
+        try {
+            threadMXBean?.getThreadAllocatedBytes(Thread.currentThread().id) ?: -1
+        } catch (e: UnsupportedOperationException) {
+            -1
+        }
+
+}
@@ -0,0 +1,77 @@
+package com.like.common.util
+
+import android.content.SharedPreferences
+
+/**
+ * 本地单元测试中使用的 SharedPreferences，数据只保存在内存中。
+ * 和 SharedPreferencesImpl 一样，getAll() 返回数据的副本，apply() 后在调用线程中通知监听器。
+ */
+class InMemorySharedPreferences : SharedPreferences {
+    private val map = HashMap<String, Any>()
+    private val listeners = mutableListOf<SharedPreferences.OnSharedPreferenceChangeListener>()
+
+    override fun getAll(): Map<String, *> = synchronized(map) { HashMap(map) }
+
+    private fun value(key: String): Any? = synchronized(map) { map[key] }
+
+    override fun getString(key: String, defValue: String?): String? = value(key) as String? ?: defValue
+
+    @Suppress("UNCHECKED_CAST")
+    override fun getStringSet(key: String, defValues: Set<String>?): Set<String>? = value(key) as Set<String>? ?: defValues
+
+    override fun getInt(key: String, defValue: Int): Int = value(key) as Int? ?: defValue
+
+    override fun getLong(key: String, defValue: Long): Long = value(key) as Long? ?: defValue
+
+    override fun getFloat(key: String, defValue: Float): Float = value(key) as Float? ?: defValue
+
+    override fun getBoolean(key: String, defValue: Boolean): Boolean = value(key) as Boolean? ?: defValue
+
+    override fun contains(key: String): Boolean = synchronized(map) { map.containsKey(key) }
+
+    override fun edit(): SharedPreferences.Editor = Editor()
+
+    override fun registerOnSharedPreferenceChangeListener(listener: SharedPreferences.OnSharedPreferenceChangeListener) {
+        synchronized(listeners) { listeners.add(listener) }
+    }
+
+    override fun unregisterOnSharedPreferenceChangeListener(listener: SharedPreferences.OnSharedPreferenceChangeListener) {
+        synchronized(listeners) { listeners.remove(listener) }
+    }
+
+    private inner class Editor : SharedPreferences.Editor {
+        private val changes = LinkedHashMap<String, Any?>()// value 为 null 表示移除
+        private var clear = false
+
+        override fun putString(key: String, value: String?) = apply { changes[key] = value }
+
+        override fun putStringSet(key: String, values: Set<String>?) = apply { changes[key] = values?.toSet() }
+
+        override fun putInt(key: String, value: Int) = apply { changes[key] = value }
+
+        override fun putLong(key: String, value: Long) = apply { changes[key] = value }
+
+        override fun putFloat(key: String, value: Float) = apply { changes[key] = value }
+
+        override fun putBoolean(key: String, value: Boolean) = apply { changes[key] = value }
+
+        override fun remove(key: String) = apply { changes[key] = null }
+
+        override fun clear() = apply { clear = true }
+
+        override fun commit(): Boolean {
+            apply()
+            return true
+        }
+
+        override fun apply() {
+            synchronized(map) {
+                if (clear) map.clear()
+                changes.forEach { (key, value) -> if (value == null) map.remove(key) else map[key] = value }
+            }
+            val listeners = synchronized(listeners) { ArrayList(listeners) }
+            changes.keys.forEach { key -> listeners.forEach { it.onSharedPreferenceChanged(this@InMemorySharedPreferences, key) } }
+        }
+    }
+
+}
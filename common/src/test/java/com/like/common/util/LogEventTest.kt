@@ -0,0 +1,59 @@
+package com.like.common.util
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.nio.ByteBuffer
+
+class LogEventTest {
+
+    private fun LogEvent.encode(): ByteArray =
+        LogEvent::class.java.getDeclaredMethod("encode").apply { isAccessible = true }.invoke(this) as ByteArray
+
+    @Test
+    fun fieldsBeyondLimitAreIgnored() {
+        val event = LogEvent.obtain("many", "tag", 4)
+        for (i in 0 until LogEvent.MAX_FIELD_COUNT + 10) {
+            event.kv("k", i)
+        }
+        val data = event.encode()
+        event.log()
+        val buffer = ByteBuffer.wrap(data)
+        buffer.position(2 + buffer.short)
+        assertEquals(LogEvent.MAX_FIELD_COUNT, buffer.short.toInt())
+        assertTrue(LogEventCodec.render(data).endsWith(" k=${LogEvent.MAX_FIELD_COUNT - 1}"))
+    }
+
+    @Test
+    fun longStringIsTruncatedOnCharacterBoundary() {
+        // 每个字符 3 个字节，Short.MAX_VALUE 不是 3 的倍数
+        val value = "世".repeat(Short.MAX_VALUE.toInt())
+        val buffer = ByteBuffer.allocate(Short.MAX_VALUE * 4)
+        LogEventCodec.putString(buffer, value)
+        val length = buffer.getShort(0).toInt()
+        assertEquals(Short.MAX_VALUE / 3 * 3, length)
+        val decoded = String(buffer.array(), 2, length, Charsets.UTF_8)
+        assertEquals("世".repeat(length / 3), decoded)
+    }
+
+    @Test
+    fun eventThatIsNeverLoggedDoesNotBlockThePool() {
+        LogEvent.obtain("abandoned", "tag", 4).kv("a", 1)
+        val first = LogEvent.obtain("first", "tag", 4)
+        first.log()
+        val second = LogEvent.obtain("second", "tag", 4)
+        second.log()
+        assertSame(first, second)
+    }
+
+    @Test
+    fun nestedEventsDoNotShareState() {
+        val outer = LogEvent.obtain("outer", "tag", 4).kv("a", 1)
+        val inner = LogEvent.obtain("inner", "tag", 4).kv("b", 2)
+        assertNotSame(outer, inner)
+        assertEquals("inner b=2", LogEventCodec.render(inner.encode()))
+        inner.log()
+        assertEquals("outer a=1", LogEventCodec.render(outer.encode()))
+        outer.log()
+    }
+
+}
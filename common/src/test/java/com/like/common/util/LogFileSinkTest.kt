@@ -0,0 +1,128 @@
+package com.like.common.util
+
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.util.*
+
+class LogFileSinkTest {
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+    private lateinit var dir: File
+
+    @Before
+    fun setUp() {
+        dir = temporaryFolder.newFolder("log-sink")
+    }
+
+    private fun readAll(): List<Triple<Byte, String, ByteArray>> {
+        val records = mutableListOf<Triple<Byte, String, ByteArray>>()
+        LogFileSink.listSegments(dir).forEach { segment ->
+            LogFileSink.forEachRecord(segment) { type, _, _, tag, body -> records.add(Triple(type, tag, body)) }
+        }
+        return records
+    }
+
+    private fun event(name: String, key: String, value: String): ByteArray {
+        val buffer = ByteBuffer.allocate(4096)
+        LogEventCodec.putString(buffer, name)
+        buffer.putShort(1)
+        LogEventCodec.putString(buffer, key)
+        buffer.put(LogEventCodec.TYPE_STRING)
+        LogEventCodec.putLongString(buffer, value)
+        return buffer.array().copyOf(buffer.position())
+    }
+
+    @Test
+    fun textAndEventRoundTrip() {
+        val sink = LogFileSink(dir, 4096, 4)
+        sink.appendText(3, "tag", "hello 世界", 1L)
+        val data = event("upload", "file", "a.jpg")
+        sink.append(LogFileSink.RECORD_TYPE_EVENT, 4, "net", data, 2L)
+
+        val records = readAll()
+        assertEquals(2, records.size)
+        assertEquals(LogFileSink.RECORD_TYPE_TEXT, records[0].first)
+        assertEquals("hello 世界", String(records[0].third, Charsets.UTF_8))
+        assertEquals(LogFileSink.RECORD_TYPE_EVENT, records[1].first)
+        assertEquals("net", records[1].second)
+        assertEquals("upload file=a.jpg", LogEventCodec.render(records[1].third))
+    }
+
+    @Test
+    fun rotatesAndKeepsMaxSegmentCount() {
+        val sink = LogFileSink(dir, 256, 3)
+        for (i in 0 until 100) {
+            sink.appendText(3, "t", "message $i", i.toLong())
+        }
+        val segments = LogFileSink.listSegments(dir)
+        assertEquals(3, segments.size)
+        segments.forEach { assertEquals(19 + LogFileSink.SEGMENT_FILE_SUFFIX.length, it.name.length) }
+        val messages = readAll().map { String(it.third, Charsets.UTF_8) }
+        assertEquals("message 99", messages.last())
+        // 保留的是最新的连续日志
+        val first = messages.first().removePrefix("message ").toInt()
+        assertEquals((first..99).map { "message $it" }, messages)
+    }
+
+    @Test
+    fun segmentNamesDoNotDependOnLocale() {
+        val locale = Locale.getDefault()
+        try {
+            Locale.setDefault(Locale("ar", "EG"))
+            LogFileSink(dir, 256, 3).appendText(3, "t", "m", 0L)
+        } finally {
+            Locale.setDefault(locale)
+        }
+        assertEquals(listOf("0000000000000000001" + LogFileSink.SEGMENT_FILE_SUFFIX), LogFileSink.listSegments(dir).map { it.name })
+    }
+
+    @Test
+    fun oversizedTextIsTruncatedOnCharBoundaryAndEventIsDropped() {
+        val sink = LogFileSink(dir, 256, 3)
+        sink.appendText(3, "t", "中".repeat(200), 0L)
+        sink.append(LogFileSink.RECORD_TYPE_EVENT, 3, "t", event("big", "k", "v".repeat(1000)), 1L)
+        sink.appendText(3, "t", "after", 2L)
+
+        val records = readAll()
+        assertEquals(listOf(LogFileSink.RECORD_TYPE_TEXT, LogFileSink.RECORD_TYPE_TEXT), records.map { it.first })
+        val truncated = String(records[0].third, Charsets.UTF_8)
+        assertTrue(truncated.isNotEmpty())
+        assertTrue(truncated.all { it == '中' })
+        assertEquals("after", String(records[1].third, Charsets.UTF_8))
+    }
+
+    @Test
+    fun recoverContinuesLastSegment() {
+        LogFileSink(dir, 4096, 3).appendText(3, "t", "before crash", 0L)
+        LogFileSink(dir, 4096, 3).appendText(3, "t", "after restart", 1L)
+
+        assertEquals(1, LogFileSink.listSegments(dir).size)
+        assertEquals(listOf("before crash", "after restart"), readAll().map { String(it.third, Charsets.UTF_8) })
+    }
+
+    @Test
+    fun tornRecordAfterWritePositionIsIgnored() {
+        LogFileSink(dir, 4096, 3).appendText(3, "t", "complete", 0L)
+        val segment = LogFileSink.listSegments(dir).single()
+        // 模拟写到一半时进程被杀死：记录已经部分写入，但头部的 writePosition 还没有更新
+        RandomAccessFile(segment, "rw").use { raf ->
+            raf.seek(LogFileSink.OFFSET_WRITE_POSITION.toLong())
+            val writePosition = raf.readInt()
+            raf.seek(writePosition.toLong())
+            raf.writeInt(1000)
+            raf.writeByte(LogFileSink.RECORD_TYPE_TEXT.toInt())
+        }
+        assertEquals(listOf("complete"), readAll().map { String(it.third, Charsets.UTF_8) })
+
+        // 重新打开后覆盖不完整的记录继续写入
+        LogFileSink(dir, 4096, 3).appendText(3, "t", "next", 1L)
+        assertEquals(listOf("complete", "next"), readAll().map { String(it.third, Charsets.UTF_8) })
+    }
+
+}
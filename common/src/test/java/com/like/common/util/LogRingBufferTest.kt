@@ -0,0 +1,164 @@
+package com.like.common.util
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.concurrent.thread
+
+class LogRingBufferTest {
+
+    @Test
+    fun offerAndPollKeepOrderAndFields() {
+        val buffer = LogRingBuffer(3)// 向上取整为 4
+        for (i in 0 until 4) {
+            assertTrue(buffer.offer(i, "tag$i", "message$i", null, i * 10L))
+        }
+        assertFalse(buffer.offer(4, "tag4", "message4", null, 40L))
+
+        val record = LogRecord()
+        for (i in 0 until 4) {
+            assertTrue(buffer.poll(record))
+            assertEquals(i, record.level)
+            assertEquals("tag$i", record.tag)
+            assertEquals("message$i", record.message)
+            assertEquals(i * 10L, record.timeMillis)
+        }
+        assertFalse(buffer.poll(record))
+        assertTrue(buffer.isEmpty())
+    }
+
+    @Test
+    fun wrapsAroundManyTimes() {
+        val buffer = LogRingBuffer(8)
+        val record = LogRecord()
+        val data = byteArrayOf(1, 2, 3)
+        for (i in 0 until 10_000) {
+            assertTrue(buffer.offer(i, "t", "m", if (i % 2 == 0) data else null, 0L))
+            assertTrue(buffer.poll(record))
+            assertEquals(i, record.level)
+            assertEquals(if (i % 2 == 0) data else null, record.data)
+        }
+        assertTrue(buffer.isEmpty())
+    }
+
+    @Test
+    fun pollWithoutOutputDropsRecord() {
+        val buffer = LogRingBuffer(2)
+        buffer.offer(1, "t", "a", null, 0L)
+        buffer.offer(2, "t", "b", null, 0L)
+        assertTrue(buffer.poll(null))
+        val record = LogRecord()
+        assertTrue(buffer.poll(record))
+        assertEquals("b", record.message)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsCapacityAboveMax() {
+        LogRingBuffer(LogRingBuffer.MAX_CAPACITY + 1)
+    }
+
+    @Test
+    fun concurrentProducersAndConsumersSeeEveryRecordOnce() {
+        val buffer = LogRingBuffer(64)
+        val producers = 4
+        val perProducer = 20_000
+        val total = producers * perProducer
+        val consumed = AtomicLong()
+        val sum = AtomicLong()
+        val consumers = (0 until 2).map {
+            thread {
+                val record = LogRecord()
+                while (consumed.get() < total) {
+                    if (buffer.poll(record)) {
+                        sum.addAndGet(record.level.toLong())
+                        consumed.incrementAndGet()
+                    }
+                }
+            }
+        }
+        (0 until producers).map { p ->
+            thread {
+                for (i in 0 until perProducer) {
+                    val value = p * perProducer + i
+                    while (!buffer.offer(value, "t", "m", null, 0L)) {
+                        Thread.yield()
+                    }
+                }
+            }
+        }.forEach { it.join() }
+        consumers.forEach { it.join() }
+        assertEquals(total.toLong(), consumed.get())
+        assertEquals(total.toLong() * (total - 1) / 2, sum.get())
+    }
+
+    @Test
+    fun droppedCountIsReportedUnderLoggerTag() {
+        val consumed = java.util.Collections.synchronizedList(mutableListOf<Pair<String, String>>())
+        val blocked = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val writer = AsyncLogWriter(2, Logger.OverflowPolicy.DROP_NEWEST) {
+            consumed.add(it.tag to it.message)
+            if (it.message == "first") {
+                blocked.countDown()
+                release.await()
+            }
+        }
+        writer.offer(3, "x", "first")
+        blocked.await()
+        for (i in 0 until 10) {
+            writer.offer(3, "a", "m$i")
+        }
+        release.countDown()
+        val deadline = System.currentTimeMillis() + 10_000
+        while (consumed.size < 4) {
+            assertTrue("records were not consumed", System.currentTimeMillis() < deadline)
+            Thread.sleep(5)
+        }
+        writer.shutdown()
+        assertEquals(Logger.TAG to "缓冲区已满，丢弃了 8 条日志", consumed[1])
+        assertEquals(listOf("x", "Logger", "a", "a"), consumed.map { it.first })
+    }
+
+    @Test
+    fun asyncWriterConsumesEverythingOfferedBeforeAndDuringShutdown() {
+        // BLOCK 不丢弃日志；DROP_OLDEST 的容量足够大时也不会丢弃
+        val policies = listOf(Logger.OverflowPolicy.BLOCK to 16, Logger.OverflowPolicy.DROP_OLDEST to (1 shl 17))
+        for ((policy, capacity) in policies) {
+            val consumed = AtomicLong()
+            val fallback = AtomicLong()
+            val writer = AsyncLogWriter(capacity, policy) { consumed.incrementAndGet() }
+            val start = CountDownLatch(1)
+            val perProducer = 20_000
+            val producers = (0 until 4).map {
+                thread {
+                    start.await()
+                    for (i in 0 until perProducer) {
+                        if (!writer.offer(3, "t", "m")) {
+                            fallback.incrementAndGet()
+                        }
+                    }
+                }
+            }
+            start.countDown()
+            Thread.sleep(5)
+            writer.shutdown()
+            producers.forEach { it.join(10_000) }
+            producers.forEach { assertFalse("producer blocked after shutdown", it.isAlive) }
+            // 等待后台线程打印完剩下的日志
+            val deadline = System.currentTimeMillis() + 10_000
+            while (consumed.get() + fallback.get() < 4L * perProducer && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1)
+            }
+            assertEquals(4L * perProducer, consumed.get() + fallback.get())
+        }
+    }
+
+    @Test
+    fun asyncWriterRejectsAfterShutdown() {
+        val writer = AsyncLogWriter(4, Logger.OverflowPolicy.DROP_OLDEST) {}
+        writer.shutdown()
+        assertFalse(writer.offer(3, "t", "m"))
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.like.common.util
+
+import android.util.Log
+import org.junit.After
+import org.junit.Test
+
+/**
+ * Logger 的微基准测试，结果打印到标准输出。单元测试中 android.util.Log 的方法不做任何事情，所以测量的只是 Logger 本身的开销。
+ */
+class LoggerBenchmark {
+
+    @After
+    fun tearDown() {
+        Logger.setDefaultTag(null)
+        Logger.setCallerTag(true)
+        Logger.setLogLineCount(0)
+    }
+
+    /**
+     * 优化前不传 tag 时查找调用者类名的方式：每次都获取当前线程的调用栈并截取类名
+     */
+    private fun baselineCallerTag(): String {
+        val stackTraces = Thread.currentThread().stackTrace
+        for ((i, stackTrace) in stackTraces.withIndex()) {
+            if (stackTrace.className.endsWith("LoggerBenchmark") && i + 1 < stackTraces.size) {
+                val className = stackTraces[i + 1].className
+                return className.substring(className.lastIndexOf(".") + 1, className.length)
+            }
+        }
+        return "Logger"
+    }
+
+    @Test
+    fun callerTag() {
+        val operations = 20_000
+        val tag = Logger.tagOf(javaClass)
+        Benchmark.run("Logger.d(tag, msg)", operations) { Logger.d(tag, "message") }
+        Benchmark.run("Logger.d(msg) caller tag, baseline lookup", operations) { Logger.d(baselineCallerTag(), "message") }
+        Benchmark.run("Logger.d(msg) caller tag", operations) { Logger.d("message") }
+        Logger.setCallerTag(false)
+        Benchmark.run("Logger.d(msg) caller tag disabled", operations) { Logger.d("message") }
+        Logger.setCallerTag(true)
+        Logger.setDefaultTag("App")
+        Benchmark.run("Logger.d(msg) default tag", operations) { Logger.d("message") }
+    }
+
+    /**
+     * 优化前的分批打印：每批都创建 substring，再和前缀拼接成新的字符串
+     */
+    private fun baselineChunks(tag: String, text: String, logLineCount: Int) {
+        val bitchCount = text.length / logLineCount + 1
+        for (i in 0 until bitchCount) {
+            val start = i * logLineCount
+            val next = (i + 1) * logLineCount
+            val end = if (next > text.length) text.length else next
+            Log.d(tag, "Logger bitch " + i + "：" + text.substring(start, end))
+        }
+    }
+
+    @Test
+    fun chunkOneMegabyteMessage() {
+        val message = buildString {
+            while (length < 1024 * 1024) {
+                append("0123456789abcdef 日志内容 ")
+                if (length % 300 < 20) append('\n')
+            }
+        }
+        val lineCount = 4000
+        Logger.setLogLineCount(lineCount)
+        val operations = 20
+        val tag = "Benchmark"
+        Benchmark.run("1MB message, baseline substring chunks", operations) { baselineChunks(tag, message, lineCount) }
+        Benchmark.run("1MB message, Logger.d(tag, msg)", operations) { Logger.d(tag, message) }
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.like.common.util
+
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+
+class LoggerTest {
+
+    @After
+    fun tearDown() {
+        Logger.setDefaultTag(null)
+        Logger.setCallerTag(true)
+        Logger.clearThrottle("throttled")
+    }
+
+    /**
+     * 不传 tag 创建的结构化日志使用的 tag。log() 之后实例会被回收，所以在 log() 之前读取。
+     */
+    private fun untaggedTag(): String {
+        val event = Logger.event("tag")
+        val tag = event.tag
+        event.log()
+        return tag
+    }
+
+    @Test
+    fun untaggedCallsUseCallerClassName() {
+        assertEquals("LoggerTest", untaggedTag())
+    }
+
+    @Test
+    fun defaultTagAndDisabledCallerTag() {
+        Logger.setDefaultTag("App")
+        assertEquals("App", untaggedTag())
+        Logger.setDefaultTag(null)
+        Logger.setCallerTag(false)
+        assertEquals("Logger", untaggedTag())
+    }
+
+    @Test
+    fun collectionAndMapConsumeOneThrottlePermit() {
+        Logger.setRateLimit("throttled", 0.001, 2)
+        Logger.printCollection("throttled", listOf(1, 2, 3))
+        Logger.printMap("throttled", mapOf("a" to 1, "b" to 2, "c" to 3))
+        assertEquals(0L, Logger.drainSuppressedCount("throttled"))
+        Logger.printCollection("throttled", listOf(1, 2, 3))
+        assertEquals(1L, Logger.drainSuppressedCount("throttled"))
+    }
+
+}
@@ -0,0 +1,149 @@
+package com.like.common.util
+
+import android.content.Context
+import android.content.ContextWrapper
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.RandomAccessFile
+
+class MmapKVUtilsTest {
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+    private lateinit var context: Context
+    private lateinit var file: File
+
+    @Before
+    fun setUp() {
+        val filesDir = temporaryFolder.newFolder("files")
+        context = object : ContextWrapper(null) {
+            override fun getApplicationContext(): Context = this
+            override fun getFilesDir(): File = filesDir
+            override fun getPackageName(): String = "test"
+        }
+        file = File(filesDir, "mmapkv/test.kv")
+    }
+
+    /**
+     * 每次创建新的实例，相当于进程重启后重新打开文件
+     */
+    private fun open(): MmapKVUtils =
+        MmapKVUtils::class.java.getDeclaredConstructor().apply { isAccessible = true }.newInstance().apply { init(context) }
+
+    @Test
+    fun putGetRemoveAndReopen() {
+        val kv = open()
+        kv.put("string", "世界")
+        kv.put("boolean", true)
+        kv.put("int", 1)
+        kv.put("long", 2L)
+        kv.put("float", 3f)
+        kv.put("double", 4.0)
+        kv.put("removed", "x")
+        kv.remove("removed")
+        kv.put("int", 5)
+        kv.put("null", null)
+
+        val expected = mapOf("string" to "世界", "boolean" to true, "int" to 5, "long" to 2L, "float" to 3f, "double" to 4.0)
+        assertEquals(expected, kv.getAll())
+        assertEquals(expected, open().getAll())
+        assertEquals("default", open().get("removed", "default"))
+        assertFalse(open().contains("null"))
+    }
+
+    @Test
+    fun compactsAndGrowsWhenFull() {
+        val kv = open()
+        val value = "v".repeat(500)
+        for (i in 0 until 2000) {
+            kv.put("k${i % 10}", "$i$value")
+        }
+        for (i in 0 until 100) {
+            kv.put("big$i", "$i$value")
+        }
+        // 旧记录都被压缩掉了，否则文件至少有 1MB
+        assertTrue("file was not compacted: ${file.length()}", file.length() < 256 * 1024)
+
+        val reopened = open()
+        assertEquals(110, reopened.getAll()!!.size)
+        for (k in 0 until 10) {
+            assertEquals("${1990 + k}$value", reopened.get("k$k", ""))
+        }
+        assertEquals("99$value", reopened.get("big99", ""))
+    }
+
+    @Test
+    fun recordAfterDataEndIsIgnored() {
+        open().put("a", 1)
+        val dataEnd = RandomAccessFile(file, "r").use {
+            it.seek(8)
+            it.readInt()
+        }
+        // 模拟写入记录后、更新 dataEnd 前进程被杀死
+        RandomAccessFile(file, "rw").use {
+            it.seek(dataEnd.toLong())
+            it.writeShort(1)
+            it.write('b'.code)
+            it.writeByte(3)
+            it.writeInt(2)
+        }
+
+        val reopened = open()
+        assertEquals(mapOf("a" to 1), reopened.getAll())
+        reopened.put("c", 3)
+        assertEquals(mapOf("a" to 1, "c" to 3), open().getAll())
+    }
+
+    @Test
+    fun corruptedRecordIsDroppedWithEverythingAfterIt() {
+        open().apply {
+            put("a", "first")
+            put("b", "second")
+            put("c", "third")
+        }
+        val bytes = file.readBytes()
+        // 把 b 的类型改成不存在的类型
+        val typePosition = String(bytes, Charsets.ISO_8859_1).indexOf("second") - 5
+        bytes[typePosition] = 99
+        file.writeBytes(bytes)
+
+        val reopened = open()
+        assertEquals(mapOf("a" to "first"), reopened.getAll())
+        reopened.put("d", "fourth")
+        assertEquals(mapOf("a" to "first", "d" to "fourth"), open().getAll())
+    }
+
+    @Test
+    fun failedWriteDoesNotChangeMemory() {
+        val kv = open()
+        kv.put("a", 1)
+        // 用普通文件替换目录，之后压缩时无法创建临时文件
+        val dir = file.parentFile!!
+        dir.deleteRecursively()
+        dir.writeText("")
+
+        kv.put("big", "x".repeat(8 * 1024))// 超过剩余空间，需要压缩
+        assertFalse(kv.contains("big"))
+        kv.clear()
+        assertEquals(1, kv.get("a", 0))
+    }
+
+    @Test
+    fun clearAndInvalidFile() {
+        open().apply {
+            put("a", 1)
+            clear()
+        }
+        assertTrue(open().getAll()!!.isEmpty())
+
+        file.writeBytes(ByteArray(64) { 1 })
+        val kv = open()
+        assertTrue(kv.getAll()!!.isEmpty())
+        kv.put("a", 1)
+        assertEquals(1, open().get("a", 0))
+    }
+
+}
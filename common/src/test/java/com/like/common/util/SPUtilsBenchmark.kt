@@ -0,0 +1,68 @@
+package com.like.common.util
+
+import android.content.Context
+import android.content.ContextWrapper
+import android.content.SharedPreferences
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * 比较[SPUtils.get]和优化前通过 getAll() 查找的读取耗时，结果打印到标准输出。
+ */
+class SPUtilsBenchmark {
+
+    private fun newSPUtils(prefs: SharedPreferences): SPUtils {
+        val context = object : ContextWrapper(null) {
+            override fun getApplicationContext(): Context = this
+            override fun getPackageName(): String = "test"
+            override fun getSharedPreferences(name: String, mode: Int): SharedPreferences = prefs
+        }
+        // SPUtils 是单例，每次创建新的实例，避免不同 key 数量的测试互相影响
+        return SPUtils::class.java.getDeclaredConstructor().apply { isAccessible = true }.newInstance().apply { init(context) }
+    }
+
+    /**
+     * 优化前的 SPUtils.get：复制整个 Map 后逐个比较 key
+     */
+    @Suppress("UNCHECKED_CAST")
+    private fun <T> baselineGet(prefs: SharedPreferences, key: String, default: T): T {
+        prefs.all.forEach {
+            if (it.key == key) {
+                return try {
+                    it.value as T
+                } catch (e: Exception) {
+                    default
+                }
+            }
+        }
+        return default
+    }
+
+    @Test
+    fun readLatency() {
+        for (keyCount in listOf(10, 100, 1000)) {
+            val prefs = InMemorySharedPreferences()
+            prefs.edit().apply {
+                for (i in 0 until keyCount) {
+                    putInt("key$i", i)
+                }
+            }.apply()
+            val spUtils = newSPUtils(prefs)
+            val keys = Array(keyCount) { "key$it" }
+            assertEquals(keyCount - 1, spUtils.get(keys[keyCount - 1], -1))
+
+            val operations = 20_000
+            // 复制整个 Map 的开销和 key 的数量成正比，key 多时减少次数
+            Benchmark.run("baseline getAll() scan, $keyCount keys", if (keyCount >= 1000) operations / 10 else operations) {
+                Benchmark.sink = baselineGet(prefs, keys[it % keyCount], -1)
+            }
+            Benchmark.run("SPUtils.get, $keyCount keys", operations) {
+                Benchmark.sink = spUtils.get(keys[it % keyCount], -1)
+            }
+            Benchmark.run("SPUtils.getInt, $keyCount keys", operations) {
+                Benchmark.sink = spUtils.getInt(keys[it % keyCount], -1)
+            }
+        }
+    }
+
+}
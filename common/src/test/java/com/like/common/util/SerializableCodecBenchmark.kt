@@ -0,0 +1,114 @@
+package com.like.common.util
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInput
+import java.io.DataOutput
+import java.io.Serializable
+
+/**
+ * 比较[SerializableCodecs]使用编解码器和直接使用 ObjectOutputStream 的开销，结果打印到标准输出。
+ */
+class SerializableCodecBenchmark {
+
+    enum class Level { LOW, HIGH }
+
+    data class Address(val city: String, val zip: Int) : Serializable
+
+    data class User(
+        val name: String,
+        val age: Int,
+        val vip: Boolean,
+        val balance: Double,
+        val createdAt: Long,
+        val level: Level,
+        val tags: List<String>,
+        val address: Address,
+        val avatar: ByteArray
+    ) : Serializable
+
+    /**
+     * 和 codec-compiler 为 Address 生成的代码一致
+     */
+    private object AddressCodec : SerializableCodec<Address> {
+        override fun encode(value: Address, output: DataOutput) {
+            SerializableCodecs.writeString(output, value.city)
+            output.writeInt(value.zip)
+        }
+
+        override fun decode(input: DataInput): Address {
+            val city = SerializableCodecs.readString(input)!!
+            val zip = input.readInt()
+            return Address(city, zip)
+        }
+    }
+
+    /**
+     * 和 codec-compiler 为 User 生成的代码一致
+     */
+    private object UserCodec : SerializableCodec<User> {
+        override fun encode(value: User, output: DataOutput) {
+            SerializableCodecs.writeString(output, value.name)
+            output.writeInt(value.age)
+            output.writeBoolean(value.vip)
+            output.writeDouble(value.balance)
+            output.writeLong(value.createdAt)
+            SerializableCodecs.writeString(output, value.level.name)
+            SerializableCodecs.writeValue(output, value.tags)
+            SerializableCodecs.writeObject(output, value.address, AddressCodec)
+            SerializableCodecs.writeByteArray(output, value.avatar)
+        }
+
+        @Suppress("UNCHECKED_CAST")
+        override fun decode(input: DataInput): User {
+            val name = SerializableCodecs.readString(input)!!
+            val age = input.readInt()
+            val vip = input.readBoolean()
+            val balance = input.readDouble()
+            val createdAt = input.readLong()
+            val level = Level.valueOf(SerializableCodecs.readString(input)!!)
+            val tags = SerializableCodecs.readValue(input) as List<String>
+            val address = SerializableCodecs.readObject(input, AddressCodec)!!
+            val avatar = SerializableCodecs.readByteArray(input)!!
+            return User(name, age, vip, balance, createdAt, level, tags, address, avatar)
+        }
+    }
+
+    private val user = User(
+        "张三", 18, true, 12.5, 1_600_000_000_000L, Level.HIGH,
+        listOf("a", "b", "c"), Address("成都", 610000), ByteArray(16) { it.toByte() }
+    )
+
+    private fun roundTrip(write: (Any, ByteArrayOutputStream) -> Unit, read: (ByteArrayInputStream) -> Any?): Int {
+        val output = ByteArrayOutputStream()
+        write(user, output)
+        Benchmark.sink = read(ByteArrayInputStream(output.toByteArray()))
+        return output.size()
+    }
+
+    @Test
+    fun codecVersusObjectStream() {
+        SerializableCodecs.register(User::class.java, UserCodec)
+        val write: (Any, ByteArrayOutputStream) -> Unit = { value, output -> SerializableCodecs.write(value, output) }
+        val read: (ByteArrayInputStream) -> Any? = { SerializableCodecs.read(it) }
+        val writeObject: (Any, ByteArrayOutputStream) -> Unit = { value, output ->
+            java.io.ObjectOutputStream(output).use { it.writeObject(value) }
+        }
+        val readObject: (ByteArrayInputStream) -> Any? = { java.io.ObjectInputStream(it).use { input -> input.readObject() } }
+
+        val codecSize = roundTrip(write, read)
+        val decoded = Benchmark.sink as User
+        assertEquals(user.copy(avatar = decoded.avatar), decoded)
+        assertArrayEquals(user.avatar, decoded.avatar)
+        val objectStreamSize = roundTrip(writeObject, readObject)
+        println("encoded size: codec $codecSize B, ObjectOutputStream $objectStreamSize B")
+        assertTrue(codecSize < objectStreamSize)
+
+        val operations = 5_000
+        Benchmark.run("SerializableCodecs write + read", operations) { roundTrip(write, read) }
+        Benchmark.run("ObjectOutputStream write + read", operations) { roundTrip(writeObject, readObject) }
+    }
+
+}
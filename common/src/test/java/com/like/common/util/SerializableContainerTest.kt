@@ -0,0 +1,186 @@
+package com.like.common.util
+
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.RandomAccessFile
+import kotlin.concurrent.thread
+
+class SerializableContainerTest {
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+    private lateinit var file: File
+
+    @Before
+    fun setUp() {
+        file = File(temporaryFolder.newFolder("serializable"), "serializable.data")
+    }
+
+    private fun SerializableContainer.string(key: String): String? = get(key)?.toString(Charsets.UTF_8)
+
+    private fun SerializableContainer.put(key: String, value: String) = put(key, value.toByteArray(Charsets.UTF_8))
+
+    @Test
+    fun putGetRemoveAndReopen() {
+        val container = SerializableContainer(file)
+        container.put("a", "1")
+        container.put("b", "2")
+        container.put("a", "3")
+        container.remove("b")
+        assertEquals("3", container.string("a"))
+        assertNull(container.get("b"))
+        assertEquals(listOf("a"), container.keys())
+
+        val reopened = SerializableContainer(file)
+        assertEquals("3", reopened.string("a"))
+        assertFalse(reopened.contains("b"))
+    }
+
+    @Test
+    fun tornTailIsTruncatedAndLaterAppendsSurvive() {
+        SerializableContainer(file).apply {
+            put("a", "1")
+            put("b", "2")
+        }
+        val length = file.length()
+        // 模拟写入最后一条记录时进程被杀死
+        RandomAccessFile(file, "rw").use {
+            it.seek(length)
+            it.writeShort(1)
+            it.write('c'.code)
+            it.writeInt(100)
+        }
+
+        val reopened = SerializableContainer(file)
+        assertEquals(length, file.length())
+        assertEquals("1", reopened.string("a"))
+        assertEquals("2", reopened.string("b"))
+        assertFalse(reopened.contains("c"))
+
+        reopened.put("c", "3")
+        assertEquals("3", SerializableContainer(file).string("c"))
+    }
+
+    @Test
+    fun corruptedRecordIsDroppedWithEverythingAfterIt() {
+        SerializableContainer(file).apply {
+            put("a", "first")
+            put("b", "second")
+            put("c", "third")
+        }
+        val bytes = file.readBytes()
+        val position = String(bytes, Charsets.ISO_8859_1).indexOf("second")
+        bytes[position] = 'S'.code.toByte()
+        file.writeBytes(bytes)
+
+        val reopened = SerializableContainer(file)
+        assertEquals("first", reopened.string("a"))
+        assertFalse(reopened.contains("b"))
+        assertFalse(reopened.contains("c"))
+    }
+
+    @Test
+    fun corruptedDataIsNotReturned() {
+        val container = SerializableContainer(file)
+        container.put("a", "value")
+        val bytes = file.readBytes()
+        bytes[String(bytes, Charsets.ISO_8859_1).indexOf("value")] = 'V'.code.toByte()
+        file.writeBytes(bytes)
+        assertNull(container.get("a"))
+    }
+
+    @Test
+    fun compactionKeepsLatestValuesAndShrinksFile() {
+        val container = SerializableContainer(file)
+        val value = "x".repeat(1024)
+        for (i in 0 until 1000) {
+            container.put("k${i % 10}", "$i$value")
+        }
+        container.remove("k0")
+        awaitCompaction(container)
+
+        assertTrue("file was not compacted: ${file.length()}", file.length() < 200 * 1024)
+        for (k in 1 until 10) {
+            assertEquals("${990 + k}$value", container.string("k$k"))
+        }
+        assertFalse(container.contains("k0"))
+
+        val reopened = SerializableContainer(file)
+        assertEquals(container.keys().sorted(), reopened.keys().sorted())
+        for (k in 1 until 10) {
+            assertEquals("${990 + k}$value", reopened.string("k$k"))
+        }
+    }
+
+    @Test
+    fun writesDuringCompactionAreKept() {
+        val container = SerializableContainer(file)
+        val value = "y".repeat(2048)
+        val expected = HashMap<String, String>()
+        val writers = (0 until 4).map { t ->
+            thread {
+                for (i in 0 until 500) {
+                    val key = "t$t-${i % 20}"
+                    if (i % 7 == 0) {
+                        container.remove(key)
+                    } else {
+                        container.put(key, "$i$value")
+                    }
+                }
+            }
+        }
+        val readers = (0 until 2).map {
+            thread {
+                for (i in 0 until 2000) {
+                    container.keys().forEach { key ->
+                        val read = container.string(key)
+                        assertTrue(read == null || read.endsWith(value))
+                    }
+                }
+            }
+        }
+        writers.forEach { it.join() }
+        readers.forEach { it.join() }
+        awaitCompaction(container)
+
+        // 每个 key 最后一次写入决定结果
+        for (t in 0 until 4) {
+            for (k in 0 until 20) {
+                val last = (0 until 500).last { it % 20 == k }
+                if (last % 7 != 0) expected["t$t-$k"] = "$last$value"
+            }
+        }
+        assertEquals(expected, container.keys().associateWith { container.string(it) })
+        val reopened = SerializableContainer(file)
+        assertEquals(expected, reopened.keys().associateWith { reopened.string(it) })
+    }
+
+    @Test
+    fun clearDuringCompactionWins() {
+        val container = SerializableContainer(file)
+        val value = "z".repeat(1024)
+        for (i in 0 until 200) {
+            container.put("k${i % 4}", "$i$value")
+        }
+        container.clear()
+        awaitCompaction(container)
+        assertTrue(container.keys().isEmpty())
+        assertTrue(SerializableContainer(file).keys().isEmpty())
+    }
+
+    /**
+     * 等待后台线程中的压缩完成
+     */
+    private fun awaitCompaction(container: SerializableContainer) {
+        val field = SerializableContainer::class.java.getDeclaredField("compacting").apply { isAccessible = true }
+        val deadline = System.currentTimeMillis() + 10_000
+        while (synchronized(container) { field.getBoolean(container) }) {
+            assertTrue("compaction timed out", System.currentTimeMillis() < deadline)
+            Thread.sleep(5)
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.like.logreader
+
+import java.io.Writer
+import java.text.SimpleDateFormat
+import java.util.*
+
+/**
+ * 把日志逐条写入[Writer]，不在内存中缓存。
+ */
+interface LogExporter {
+    fun begin() {}
+
+    fun export(record: LogRecord)
+
+    fun end() {}
+}
+
+/**
+ * 导出为文本，每条日志一行：时间 级别/tag: 内容
+ */
+class TextLogExporter(private val writer: Writer) : LogExporter {
+    private val dateFormat = SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.getDefault())
+
+    override fun export(record: LogRecord) {
+        writer.write(dateFormat.format(Date(record.timeMillis)))
+        writer.write(" ")
+        writer.write(LogFormat.levelName(record.level))
+        writer.write("/")
+        writer.write(record.tag)
+        writer.write(": ")
+        writer.write(record.message())
+        writer.write("\n")
+    }
+
+    override fun end() {
+        writer.flush()
+    }
+
+}
+
+/**
+ * 导出为 json 数组，每条日志一个对象。结构化日志会保留字段的类型。
+ */
+class JsonLogExporter(private val writer: Writer) : LogExporter {
+    private var first = true
+
+    override fun begin() {
+        writer.write("[")
+    }
+
+    override fun export(record: LogRecord) {
+        writer.write(if (first) "\n" else ",\n")
+        first = false
+        writer.write("{\"time\":")
+        writer.write(record.timeMillis.toString())
+        writer.write(",\"level\":")
+        writeString(LogFormat.levelName(record.level))
+        writer.write(",\"tag\":")
+        writeString(record.tag)
+        val event = record.event()
+        if (event == null) {
+            writer.write(",\"message\":")
+            writeString(record.message())
+        } else {
+            writer.write(",\"event\":")
+            writeString(event.name)
+            writer.write(",\"fields\":{")
+            var firstField = true
+            event.fields.forEach { (key, value) ->
+                if (!firstField) writer.write(",")
+                firstField = false
+                writeString(key)
+                writer.write(":")
+                when (value) {
+                    null -> writer.write("null")
+                    is String -> writeString(value)
+                    is Double -> if (value.isNaN() || value.isInfinite()) writeString(value.toString()) else writer.write(value.toString())
+                    else -> writer.write(value.toString())
+                }
+            }
+            writer.write("}")
+        }
+        writer.write("}")
+    }
+
+    override fun end() {
+        writer.write("\n]\n")
+        writer.flush()
+    }
+
+    private fun writeString(value: String) {
+        writer.write("\"")
+        for (c in value) {
+            when (c) {
+                '"' -> writer.write("\\\"")
+                '\\' -> writer.write("\\\\")
+                '\n' -> writer.write("\\n")
+                '\r' -> writer.write("\\r")
+                '\t' -> writer.write("\\t")
+                else -> if (c < ' ') writer.write(String.format("\\u%04x", c.code)) else writer.write(c.code)
+            }
+        }
+        writer.write("\"")
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.like.logreader
+
+/**
+ * 日志过滤条件
+ *
+ * @param tags      只保留这些 tag 的日志，为空表示不限
+ * @param minLevel  最低级别
+ * @param fromTime  开始时间（包含），毫秒
+ * @param toTime    结束时间（包含），毫秒
+ */
+class LogFilter(
+    val tags: Set<String> = emptySet(),
+    val minLevel: Int = 0,
+    val fromTime: Long = Long.MIN_VALUE,
+    val toTime: Long = Long.MAX_VALUE
+) {
+    private val tagBloom = tags.fold(0L) { bloom, tag -> bloom or LogFormat.tagBloomBit(tag) }
+
+    /**
+     * 根据段头部的摘要判断段中是否可能有符合条件的日志，返回 false 时可以跳过整个段。
+     */
+    fun mayMatch(header: SegmentHeader): Boolean {
+        if (header.recordCount == 0) return false
+        if (header.maxTime < fromTime || header.minTime > toTime) return false
+        // levelMask 中第 n 位表示段中有级别为 n 的日志
+        if (header.levelMask ushr minLevel.coerceIn(0, 31) == 0) return false
+        if (tags.isNotEmpty() && header.tagBloom and tagBloom == 0L) return false
+        return true
+    }
+
+    /**
+     * 只根据记录的头部判断，不需要解码日志内容。
+     */
+    fun matches(level: Int, timeMillis: Long, tag: String): Boolean =
+        level >= minLevel && timeMillis in fromTime..toTime && (tags.isEmpty() || tag in tags)
+
+}
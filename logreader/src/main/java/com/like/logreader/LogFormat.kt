@@ -0,0 +1,55 @@
+package com.like.logreader
+
+/**
+ * 日志段文件的格式常量。
+ * 必须和 common 模块中的 LogFileSink、LogEventCodec 保持一致，这里单独定义是为了不依赖 Android。
+ */
+internal object LogFormat {
+    const val MAGIC = 0x4C4F4753// "LOGS"
+    const val HEADER_SIZE = 64
+    const val SEGMENT_FILE_SUFFIX = ".mlog"
+
+    const val RECORD_TYPE_TEXT: Byte = 1
+    const val RECORD_TYPE_EVENT: Byte = 2
+
+    // length + type + level + time + tagLength + bodyLength
+    const val RECORD_FIXED_SIZE = 4 + 1 + 1 + 8 + 2 + 4
+
+    const val FIELD_TYPE_LONG: Byte = 1
+    const val FIELD_TYPE_DOUBLE: Byte = 2
+    const val FIELD_TYPE_BOOLEAN: Byte = 3
+    const val FIELD_TYPE_STRING: Byte = 4
+    const val FIELD_TYPE_NULL: Byte = 5
+
+    /**
+     * tag 在段头部摘要中对应的 bloom 位
+     */
+    fun tagBloomBit(tag: String): Long = 1L shl (tag.hashCode() and 63)
+
+    /**
+     * android.util.Log 中定义的级别对应的字母
+     */
+    fun levelName(level: Int): String = when (level) {
+        2 -> "V"
+        3 -> "D"
+        4 -> "I"
+        5 -> "W"
+        6 -> "E"
+        7 -> "A"
+        else -> level.toString()
+    }
+
+    /**
+     * 解析级别，支持字母（V、D、I、W、E、A）和数字
+     */
+    fun parseLevel(level: String): Int = when (level.uppercase()) {
+        "V" -> 2
+        "D" -> 3
+        "I" -> 4
+        "W" -> 5
+        "E" -> 6
+        "A" -> 7
+        else -> level.toInt()
+    }
+
+}
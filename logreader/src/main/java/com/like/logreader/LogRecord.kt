@@ -0,0 +1,68 @@
+package com.like.logreader
+
+import java.nio.ByteBuffer
+
+/**
+ * 从段文件中读取的一条日志
+ *
+ * @property type   [LogFormat.RECORD_TYPE_TEXT] 或者 [LogFormat.RECORD_TYPE_EVENT]
+ * @property body   原始数据，只有在调用[message]、[event]时才会解码
+ */
+class LogRecord(
+    val type: Byte,
+    val level: Int,
+    val timeMillis: Long,
+    val tag: String,
+    val body: ByteArray
+) {
+
+    /**
+     * 日志内容。结构化日志转换为 "name key1=value1 key2=value2" 格式的文本。
+     */
+    fun message(): String {
+        if (type != LogFormat.RECORD_TYPE_EVENT) return String(body, Charsets.UTF_8)
+        val event = event() ?: return ""
+        val sb = StringBuilder(event.name)
+        event.fields.forEach { (key, value) ->
+            sb.append(' ').append(key).append('=').append(value)
+        }
+        return sb.toString()
+    }
+
+    /**
+     * 解码结构化日志。不是结构化日志时返回 null。
+     */
+    fun event(): LogEvent? {
+        if (type != LogFormat.RECORD_TYPE_EVENT) return null
+        val buffer = ByteBuffer.wrap(body)
+        val name = getString(buffer, buffer.short.toInt())
+        val fieldCount = buffer.short.toInt()
+        val fields = LinkedHashMap<String, Any?>(fieldCount * 2)
+        for (i in 0 until fieldCount) {
+            val key = getString(buffer, buffer.short.toInt())
+            fields[key] = when (buffer.get()) {
+                LogFormat.FIELD_TYPE_LONG -> buffer.long
+                LogFormat.FIELD_TYPE_DOUBLE -> java.lang.Double.longBitsToDouble(buffer.long)
+                LogFormat.FIELD_TYPE_BOOLEAN -> buffer.get() != 0.toByte()
+                LogFormat.FIELD_TYPE_STRING -> getString(buffer, buffer.int)
+                LogFormat.FIELD_TYPE_NULL -> null
+                else -> break// 无法识别的类型，后面的数据无法解析
+            }
+        }
+        return LogEvent(name, fields)
+    }
+
+    private fun getString(buffer: ByteBuffer, length: Int): String {
+        val value = String(buffer.array(), buffer.position(), length, Charsets.UTF_8)
+        buffer.position(buffer.position() + length)
+        return value
+    }
+
+}
+
+/**
+ * 结构化日志
+ *
+ * @property fields 字段值的类型为 Long、Double、Boolean、String 或者 null
+ */
+class LogEvent(val name: String, val fields: Map<String, Any?>)
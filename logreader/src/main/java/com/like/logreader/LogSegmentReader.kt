@@ -0,0 +1,115 @@
+package com.like.logreader
+
+import java.io.*
+
+/**
+ * 段文件的头部摘要
+ *
+ * @property writePosition  最后一条完整记录结束的位置
+ * @property levelMask      第 n 位表示段中有级别为 n 的日志
+ * @property tagBloom       段中所有 tag 的 bloom 过滤位
+ */
+class SegmentHeader(
+    val writePosition: Int,
+    val recordCount: Int,
+    val minTime: Long,
+    val maxTime: Long,
+    val levelMask: Int,
+    val tagBloom: Long
+)
+
+/**
+ * 流式读取日志段文件，每次只在内存中保留一条记录，可以处理任意大小的日志。
+ * 先读取段头部的摘要，不可能有符合条件的日志时直接跳过整个段；不符合条件的记录也只读取头部，直接跳过内容。
+ */
+object LogSegmentReader {
+    private const val BUFFER_SIZE = 64 * 1024
+
+    /**
+     * 获取段文件列表，按文件名（即段序号）升序排列。
+     *
+     * @param paths 段文件或者包含段文件的目录
+     */
+    fun listSegments(paths: List<File>): List<File> =
+        paths.flatMap { path ->
+            if (path.isDirectory) {
+                path.listFiles { file -> file.isFile && file.name.endsWith(LogFormat.SEGMENT_FILE_SUFFIX) }
+                    ?.sortedBy { it.name }
+                    ?: emptyList()
+            } else {
+                listOf(path)
+            }
+        }
+
+    /**
+     * 读取段文件的头部
+     *
+     * @return 不是有效的段文件时返回 null
+     */
+    fun readHeader(segment: File): SegmentHeader? =
+        DataInputStream(BufferedInputStream(FileInputStream(segment), LogFormat.HEADER_SIZE)).use {
+            readHeader(it, segment.length())
+        }
+
+    /**
+     * 依次读取段文件中符合条件的日志
+     *
+     * @throws IOException 读取失败，或者记录中的长度互相矛盾（文件已损坏）
+     */
+    @Throws(IOException::class)
+    fun forEach(segment: File, filter: LogFilter, action: (LogRecord) -> Unit) {
+        DataInputStream(BufferedInputStream(FileInputStream(segment), BUFFER_SIZE)).use { input ->
+            val header = readHeader(input, segment.length()) ?: return
+            if (!filter.mayMatch(header)) return
+            var position = LogFormat.HEADER_SIZE
+            while (position + LogFormat.RECORD_FIXED_SIZE <= header.writePosition) {
+                val recordLength = input.readInt()
+                if (recordLength < LogFormat.RECORD_FIXED_SIZE || position + recordLength > header.writePosition) return
+                val type = input.readByte()
+                val level = input.readByte().toInt()
+                val timeMillis = input.readLong()
+                val tagLength = input.readUnsignedShort()
+                if (LogFormat.RECORD_FIXED_SIZE + tagLength > recordLength) throw corrupted(segment, position)
+                val tag = ByteArray(tagLength).also { input.readFully(it) }.toString(Charsets.UTF_8)
+                val bodyLength = input.readInt()
+                if (LogFormat.RECORD_FIXED_SIZE + tagLength + bodyLength != recordLength) throw corrupted(segment, position)
+                if (filter.matches(level, timeMillis, tag)) {
+                    val body = ByteArray(bodyLength).also { input.readFully(it) }
+                    action(LogRecord(type, level, timeMillis, tag, body))
+                } else {
+                    skipFully(input, bodyLength)
+                }
+                position += recordLength
+            }
+        }
+    }
+
+    private fun corrupted(segment: File, position: Int): IOException =
+        IOException("段文件已损坏：$segment 位置 $position 的记录长度不正确")
+
+    private fun readHeader(input: DataInputStream, fileLength: Long): SegmentHeader? {
+        if (fileLength < LogFormat.HEADER_SIZE) return null
+        if (input.readInt() != LogFormat.MAGIC) return null
+        input.readShort()// version
+        input.readShort()
+        val writePosition = input.readInt().coerceAtMost(fileLength.toInt())
+        val recordCount = input.readInt()
+        val minTime = input.readLong()
+        val maxTime = input.readLong()
+        val levelMask = input.readInt()
+        input.readInt()
+        val tagBloom = input.readLong()
+        skipFully(input, LogFormat.HEADER_SIZE - 48)
+        return SegmentHeader(writePosition, recordCount, minTime, maxTime, levelMask, tagBloom)
+    }
+
+    private fun skipFully(input: DataInputStream, length: Int) {
+        var remaining = length
+        while (remaining > 0) {
+            val skipped = input.skipBytes(remaining)
+            if (skipped <= 0) throw EOFException()
+            remaining -= skipped
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.like.logreader
+
+import java.io.*
+import kotlin.system.exitProcess
+
+private const val USAGE = """用法：logreader <日志目录或者段文件>... [选项]
+选项：
+  --tag <tag>           只导出指定 tag 的日志，可以指定多次
+  --level <V|D|I|W|E|A> 最低级别
+  --from <毫秒>         开始时间（包含）
+  --to <毫秒>           结束时间（包含）
+  --format <text|json>  导出格式，默认 text
+  --out <文件>          导出到文件，默认输出到控制台"""
+
+/**
+ * 从设备上导出的日志段文件（Logger.openFileSink() 生成，位于 files/logger 目录）中读取日志，过滤后导出为文本或者 json。
+ */
+fun main(args: Array<String>) {
+    val paths = mutableListOf<File>()
+    val tags = mutableSetOf<String>()
+    var minLevel = 0
+    var fromTime = Long.MIN_VALUE
+    var toTime = Long.MAX_VALUE
+    var format = "text"
+    var out: File? = null
+    try {
+        var i = 0
+        while (i < args.size) {
+            when (val arg = args[i++]) {
+                "--tag" -> tags.add(args[i++])
+                "--level" -> minLevel = LogFormat.parseLevel(args[i++])
+                "--from" -> fromTime = args[i++].toLong()
+                "--to" -> toTime = args[i++].toLong()
+                "--format" -> format = args[i++]
+                "--out" -> out = File(args[i++])
+                else -> paths.add(File(arg))
+            }
+        }
+    } catch (e: Exception) {
+        System.err.println(USAGE)
+        exitProcess(1)
+    }
+    if (paths.isEmpty() || (format != "text" && format != "json")) {
+        System.err.println(USAGE)
+        exitProcess(1)
+    }
+
+    val writer = BufferedWriter(
+        OutputStreamWriter(out?.let { FileOutputStream(it) } ?: System.out, Charsets.UTF_8)
+    )
+    val exporter = if (format == "json") JsonLogExporter(writer) else TextLogExporter(writer)
+    val filter = LogFilter(tags, minLevel, fromTime, toTime)
+    exporter.begin()
+    LogSegmentReader.listSegments(paths).forEach { segment ->
+        try {
+            LogSegmentReader.forEach(segment, filter) { exporter.export(it) }
+        } catch (e: IOException) {
+            System.err.println("读取失败：$segment $e")
+        } catch (e: RuntimeException) {
+            // 结构化日志的内容损坏时，解码会抛出 BufferUnderflowException 等异常，跳过这个段，继续导出其它段
+            System.err.println("读取失败：$segment $e")
+        }
+    }
+    exporter.end()
+    if (out != null) {
+        writer.close()
+    }
+}
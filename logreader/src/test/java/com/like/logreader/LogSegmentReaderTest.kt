@@ -0,0 +1,145 @@
+package com.like.logreader
+
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+
+class LogSegmentReaderTest {
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private class Record(val type: Byte, val level: Int, val timeMillis: Long, val tag: String, val body: ByteArray)
+
+    /**
+     * 按照 common 模块中 LogFileSink 的格式写入段文件
+     *
+     * @param tornBytes 在 writePosition 之后追加的不完整记录，模拟写到一半时进程被杀死
+     */
+    private fun writeSegment(name: String, records: List<Record>, tornBytes: ByteArray = ByteArray(0)): File {
+        val buffer = ByteBuffer.allocate(64 * 1024)
+        buffer.position(LogFormat.HEADER_SIZE)
+        var levelMask = 0
+        var tagBloom = 0L
+        records.forEach {
+            val tag = it.tag.toByteArray(Charsets.UTF_8)
+            buffer.putInt(LogFormat.RECORD_FIXED_SIZE + tag.size + it.body.size)
+            buffer.put(it.type)
+            buffer.put(it.level.toByte())
+            buffer.putLong(it.timeMillis)
+            buffer.putShort(tag.size.toShort())
+            buffer.put(tag)
+            buffer.putInt(it.body.size)
+            buffer.put(it.body)
+            levelMask = levelMask or (1 shl it.level)
+            tagBloom = tagBloom or LogFormat.tagBloomBit(it.tag)
+        }
+        val writePosition = buffer.position()
+        buffer.put(tornBytes)
+        buffer.putInt(0, LogFormat.MAGIC)
+        buffer.putShort(4, 1)
+        buffer.putInt(8, writePosition)
+        buffer.putInt(12, records.size)
+        buffer.putLong(16, records.minOfOrNull { it.timeMillis } ?: 0L)
+        buffer.putLong(24, records.maxOfOrNull { it.timeMillis } ?: 0L)
+        buffer.putInt(32, levelMask)
+        buffer.putLong(40, tagBloom)
+        return temporaryFolder.newFile(name).apply { writeBytes(buffer.array().copyOf(buffer.position())) }
+    }
+
+    private fun text(level: Int, timeMillis: Long, tag: String, message: String) =
+        Record(LogFormat.RECORD_TYPE_TEXT, level, timeMillis, tag, message.toByteArray(Charsets.UTF_8))
+
+    private fun read(segment: File, filter: LogFilter = LogFilter()): List<LogRecord> =
+        mutableListOf<LogRecord>().also { records -> LogSegmentReader.forEach(segment, filter) { records.add(it) } }
+
+    @Test
+    fun readsTextAndEventRecords() {
+        val event = ByteBuffer.allocate(256).apply {
+            putShort(6).put("upload".toByteArray())
+            putShort(3)
+            putShort(5).put("bytes".toByteArray()).put(LogFormat.FIELD_TYPE_LONG).putLong(1024L)
+            putShort(2).put("ok".toByteArray()).put(LogFormat.FIELD_TYPE_BOOLEAN).put(1)
+            putShort(4).put("file".toByteArray()).put(LogFormat.FIELD_TYPE_STRING).putInt(5).put("a.jpg".toByteArray())
+        }.let { it.array().copyOf(it.position()) }
+        val segment = writeSegment(
+            "0000000000000000001.mlog",
+            listOf(text(3, 1L, "main", "hello 世界"), Record(LogFormat.RECORD_TYPE_EVENT, 4, 2L, "net", event))
+        )
+
+        val header = LogSegmentReader.readHeader(segment)!!
+        assertEquals(2, header.recordCount)
+        assertEquals(1L, header.minTime)
+        assertEquals(2L, header.maxTime)
+
+        val records = read(segment)
+        assertEquals(listOf("hello 世界", "upload bytes=1024 ok=true file=a.jpg"), records.map { it.message() })
+        assertNull(records[0].event())
+        assertEquals(mapOf("bytes" to 1024L, "ok" to true, "file" to "a.jpg"), records[1].event()!!.fields)
+    }
+
+    @Test
+    fun filtersRecordsAndSkipsSegments() {
+        val segment = writeSegment(
+            "0000000000000000001.mlog",
+            listOf(text(3, 10L, "a", "debug"), text(5, 20L, "b", "warn"), text(6, 30L, "a", "error"))
+        )
+        assertEquals(listOf("warn", "error"), read(segment, LogFilter(minLevel = 5)).map { it.message() })
+        assertEquals(listOf("debug", "error"), read(segment, LogFilter(tags = setOf("a"))).map { it.message() })
+        assertEquals(listOf("warn"), read(segment, LogFilter(fromTime = 15L, toTime = 25L)).map { it.message() })
+
+        val header = LogSegmentReader.readHeader(segment)!!
+        assertFalse(LogFilter(minLevel = 7).mayMatch(header))
+        assertFalse(LogFilter(fromTime = 31L).mayMatch(header))
+        assertTrue(LogFilter(minLevel = 6).mayMatch(header))
+    }
+
+    @Test
+    fun ignoresTornRecordAfterWritePosition() {
+        val torn = ByteBuffer.allocate(8).putInt(1000).put(LogFormat.RECORD_TYPE_TEXT).array()
+        val segment = writeSegment("0000000000000000001.mlog", listOf(text(3, 1L, "t", "complete")), torn)
+        assertEquals(listOf("complete"), read(segment).map { it.message() })
+    }
+
+    @Test
+    fun corruptedLengthThrowsIOException() {
+        val segment = writeSegment("0000000000000000001.mlog", listOf(text(3, 1L, "t", "first"), text(3, 2L, "t", "second")))
+        val bytes = segment.readBytes()
+        // 把第二条记录的 bodyLength 改成负数
+        val secondRecord = LogFormat.HEADER_SIZE + LogFormat.RECORD_FIXED_SIZE + 1 + 5
+        ByteBuffer.wrap(bytes).putInt(secondRecord + LogFormat.RECORD_FIXED_SIZE - 4 + 1, -1)
+        segment.writeBytes(bytes)
+
+        val records = mutableListOf<LogRecord>()
+        try {
+            LogSegmentReader.forEach(segment, LogFilter()) { records.add(it) }
+            fail("expected IOException")
+        } catch (e: IOException) {
+        }
+        assertEquals(listOf("first"), records.map { it.message() })
+    }
+
+    @Test
+    fun rejectsInvalidSegments() {
+        val empty = temporaryFolder.newFile("0000000000000000002.mlog")
+        assertNull(LogSegmentReader.readHeader(empty))
+        assertTrue(read(empty).isEmpty())
+
+        val garbage = temporaryFolder.newFile("0000000000000000003.mlog").apply { writeBytes(ByteArray(128) { 1 }) }
+        assertNull(LogSegmentReader.readHeader(garbage))
+    }
+
+    @Test
+    fun listsSegmentsInSequenceOrder() {
+        val dir = temporaryFolder.newFolder("logs")
+        listOf("0000000000000000010.mlog", "0000000000000000002.mlog", "other.txt").forEach { File(dir, it).createNewFile() }
+        assertEquals(
+            listOf("0000000000000000002.mlog", "0000000000000000010.mlog"),
+            LogSegmentReader.listSegments(listOf(dir)).map { it.name }
+        )
+    }
+
+}